@@ -0,0 +1,264 @@
+/*  Copyright (c) 2006-2007, Vladimir Nikic
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+    You can contact Vladimir Nikic by sending e-mail to
+    nikic_vladimir@yahoo.com. Please include the word "HtmlCleaner" in the
+    subject line.
+*/
+
+package org.htmlcleaner;
+
+import java.util.*;
+
+/**
+ * <p>
+ *      Checkpoint of the cleaning process at specified position of the source. When passed to
+ *      HtmlCleaner.clean(Reader, CleanCheckpoint) for the first time, state of the tokenizer and
+ *      of the tree builder is saved at the first token boundary at or after the offset. Subsequent
+ *      cleaning of the content starting with the same prefix (for example, new fetch of the same page
+ *      that has grown at the end) restores that state and parses only the rest of the content.
+ *      The prefix is validated by its hash - if it doesn't match, whole content is cleaned again
+ *      and new checkpoint state is saved.
+ * </p>
+ * <p>
+ *      Offset is expressed in characters. Checkpoint is resumed only by the cleaner instance that
+ *      created it, and cleaner's properties are expected to stay unchanged between the calls.
+ * </p>
+ */
+public class CleanCheckpoint {
+
+    private static final long HASH_BASIS = 0xcbf29ce484222325L;
+    private static final long HASH_PRIME = 0x100000001b3L;
+
+    private int offset;
+
+    // tokenizer state
+    private boolean isCaptured = false;
+    private int prefixLength;
+    private long prefixHash;
+    private boolean isScriptContext;
+    private boolean isLateForDoctype;
+    private boolean isScriptEmpty;
+    private DoctypeToken docType;
+    private String pendingWhitespace;
+    private boolean isLastTokenBlock;
+    private int preformattedDepth;
+
+    // tree builder state
+    private HtmlCleaner cleaner;
+    private List<BaseToken> tokenList;
+    private Object cleanTimeValues;
+
+    private boolean isResumed = false;
+
+    /**
+     * @param offset Number of characters from the beginning of the content where the checkpoint is made
+     */
+    public CleanCheckpoint(int offset) {
+        this.offset = offset;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return Whether the state has been saved, which happens when cleaned content reaches the offset.
+     */
+    public boolean isCaptured() {
+        return isCaptured;
+    }
+
+    /**
+     * @return Whether the last cleaning made with this checkpoint started from the saved state.
+     */
+    public boolean isResumed() {
+        return isResumed;
+    }
+
+    /**
+     * Discards saved state.
+     */
+    public void reset() {
+        isCaptured = false;
+        docType = null;
+        pendingWhitespace = null;
+        cleaner = null;
+        tokenList = null;
+        cleanTimeValues = null;
+    }
+
+    void setResumed(boolean isResumed) {
+        this.isResumed = isResumed;
+    }
+
+    void setTokenizerState(int position, long prefixHash, boolean isScriptContext, boolean isLateForDoctype, boolean isScriptEmpty, DoctypeToken docType) {
+        this.prefixLength = position + 1;
+        this.prefixHash = prefixHash;
+        this.isScriptContext = isScriptContext;
+        this.isLateForDoctype = isLateForDoctype;
+        this.isScriptEmpty = isScriptEmpty;
+        this.docType = docType;
+    }
+
+    void setTextState(String pendingWhitespace, boolean isLastTokenBlock, int preformattedDepth) {
+        this.pendingWhitespace = pendingWhitespace;
+        this.isLastTokenBlock = isLastTokenBlock;
+        this.preformattedDepth = preformattedDepth;
+    }
+
+    void setCleanerState(HtmlCleaner cleaner, List<BaseToken> tokenList, Object cleanTimeValues) {
+        this.cleaner = cleaner;
+        this.tokenList = tokenList;
+        this.cleanTimeValues = cleanTimeValues;
+        this.isCaptured = true;
+    }
+
+    /**
+     * @return Number of characters covered by the prefix hash - it includes the first
+     * character after the checkpoint position, since it decides where last token ends.
+     */
+    int getPrefixLength() {
+        return prefixLength;
+    }
+
+    /**
+     * @return Position in the content where parsing continues.
+     */
+    int getPosition() {
+        return prefixLength - 1;
+    }
+
+    boolean isScriptContext() {
+        return isScriptContext;
+    }
+
+    boolean isLateForDoctype() {
+        return isLateForDoctype;
+    }
+
+    boolean isScriptEmpty() {
+        return isScriptEmpty;
+    }
+
+    DoctypeToken getDocType() {
+        return docType;
+    }
+
+    String getPendingWhitespace() {
+        return pendingWhitespace;
+    }
+
+    boolean isLastTokenBlock() {
+        return isLastTokenBlock;
+    }
+
+    int getPreformattedDepth() {
+        return preformattedDepth;
+    }
+
+    HtmlCleaner getCleaner() {
+        return cleaner;
+    }
+
+    List<BaseToken> getTokenList() {
+        return tokenList;
+    }
+
+    Object getCleanTimeValues() {
+        return cleanTimeValues;
+    }
+
+    /**
+     * Checks if specified characters form the same prefix as the one this checkpoint is made for.
+     * @param prefix
+     */
+    boolean matchesPrefix(char prefix[]) {
+        return prefix.length == prefixLength && hash(HASH_BASIS, prefix, 0, prefix.length) == prefixHash;
+    }
+
+    static long initialHash() {
+        return HASH_BASIS;
+    }
+
+    /**
+     * Continues FNV-1a hash over the specified characters. Characters are taken the
+     * same way tokenizer sees them, with invalid XML characters converted to spaces.
+     */
+    static long hash(long hash, char chars[], int from, int to) {
+        for (int i = from; i < to; i++) {
+            int ch = chars[i];
+            if (ch >= 1 && ch <= 32 && ch != 10 && ch != 13) {
+                ch = ' ';
+            }
+            hash ^= ch;
+            hash *= HASH_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Makes a copy of the item from the token list or the tree, keeping already made copies in
+     * specified map, so that structure shared by several tokens is preserved in the copy.
+     * @param item
+     * @param copies
+     */
+    static Object copy(Object item, Map<Object, Object> copies) {
+        if (item == null) {
+            return null;
+        }
+        Object copy = copies.get(item);
+        if (copy == null) {
+            if (item instanceof TagNode) {
+                copy = ((TagNode) item).makeCheckpointCopy(copies);
+            } else if (item instanceof ContentNode) {
+                copy = new ContentNode( item.toString() );
+            } else if (item instanceof CommentNode) {
+                copy = new CommentNode( ((CommentNode) item).getContent().toString() );
+            } else if (item instanceof List) {
+                List itemList = (List) item;
+                List copyList = new ArrayList(itemList.size());
+                copies.put(item, copyList);
+                for (Object listItem: itemList) {
+                    copyList.add( copy(listItem, copies) );
+                }
+                copy = copyList;
+            } else {
+                // end tag and doctype tokens are never changed
+                copy = item;
+            }
+            copies.put(item, copy);
+        }
+        return copy;
+    }
+
+}
@@ -0,0 +1,324 @@
+/*  Copyright (c) 2006-2007, Vladimir Nikic
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+    You can contact Vladimir Nikic by sending e-mail to
+    nikic_vladimir@yahoo.com. Please include the word "HtmlCleaner" in the
+    subject line.
+*/
+
+package org.htmlcleaner;
+
+/**
+ * <p>
+ *      Statistics of a single cleaning, filled in when passed to one of the HtmlCleaner.clean()
+ *      methods accepting it. Instance may be reused for many cleanings - counters are reset at
+ *      the beginning of each one. When cleaning is resumed from a checkpoint, only the part
+ *      parsed after the checkpoint is counted.
+ * </p>
+ */
+public class CleanStats {
+
+    private int omittedWhitespaceNodes;
+    private long omittedWhitespaceChars;
+    private int sharedTextNodes;
+    private long sharedTextChars;
+    private boolean truncated;
+    private int truncationOffset = -1;
+
+    private int startTags;
+    private int endTags;
+    private int textTokens;
+    private int commentTokens;
+    private int movedTokens;
+    private int implicitlyClosedTags;
+    private int copiedTags;
+    private int addedParentTags;
+    private int prunedNodes;
+    private int maxOpenTagDepth;
+    private int peakTokenListSize;
+
+    // time spent in the tokenizer including the tree building it triggers, and the tree building alone
+    private long parseNanos;
+    private long makeTreeNanos;
+    private long documentNanos;
+
+    void reset() {
+        omittedWhitespaceNodes = 0;
+        omittedWhitespaceChars = 0;
+        sharedTextNodes = 0;
+        sharedTextChars = 0;
+        truncated = false;
+        truncationOffset = -1;
+        startTags = 0;
+        endTags = 0;
+        textTokens = 0;
+        commentTokens = 0;
+        movedTokens = 0;
+        implicitlyClosedTags = 0;
+        copiedTags = 0;
+        addedParentTags = 0;
+        prunedNodes = 0;
+        maxOpenTagDepth = 0;
+        peakTokenListSize = 0;
+        parseNanos = 0;
+        makeTreeNanos = 0;
+        documentNanos = 0;
+    }
+
+    void addToken(BaseToken token, int tokenListSize) {
+        if (token instanceof TagNode) {
+            startTags++;
+        } else if (token instanceof EndTagToken) {
+            endTags++;
+        } else if (token instanceof ContentNode) {
+            textTokens++;
+        } else if (token instanceof CommentNode) {
+            commentTokens++;
+        }
+        if (tokenListSize > peakTokenListSize) {
+            peakTokenListSize = tokenListSize;
+        }
+    }
+
+    void addMovedToken() {
+        movedTokens++;
+    }
+
+    void addImplicitlyClosedTags(int count) {
+        implicitlyClosedTags += count;
+    }
+
+    void addCopiedTag() {
+        copiedTags++;
+    }
+
+    void addParentTag() {
+        addedParentTags++;
+    }
+
+    void addPrunedNode() {
+        prunedNodes++;
+    }
+
+    void updateOpenTagDepth(int depth) {
+        if (depth > maxOpenTagDepth) {
+            maxOpenTagDepth = depth;
+        }
+    }
+
+    void addParseTime(long nanos) {
+        parseNanos += nanos;
+    }
+
+    void addMakeTreeTime(long nanos) {
+        makeTreeNanos += nanos;
+    }
+
+    void addDocumentTime(long nanos) {
+        documentNanos += nanos;
+    }
+
+    void addOmittedWhitespace(int length) {
+        omittedWhitespaceNodes++;
+        omittedWhitespaceChars += length;
+    }
+
+    void addSharedText(int length) {
+        sharedTextNodes++;
+        sharedTextChars += length;
+    }
+
+    void setTruncated(int offset) {
+        truncated = true;
+        truncationOffset = offset;
+    }
+
+    /**
+     * @return Whether cleaning stopped before the end of the input, because one of the limits set
+     * in CleanerProperties (max input chars, max node count, max text chars) was reached.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * @return Position in the input where cleaning stopped, or -1 if the content was not truncated.
+     * Content after this position is not part of the resulting tree, so the caller may continue by
+     * cleaning the input from there.
+     */
+    public int getTruncationOffset() {
+        return truncationOffset;
+    }
+
+    /**
+     * @return Number of start tags produced by the tokenizer.
+     */
+    public int getStartTags() {
+        return startTags;
+    }
+
+    /**
+     * @return Number of end tags produced by the tokenizer.
+     */
+    public int getEndTags() {
+        return endTags;
+    }
+
+    /**
+     * @return Number of text tokens produced by the tokenizer.
+     */
+    public int getTextTokens() {
+        return textTokens;
+    }
+
+    /**
+     * @return Number of comments produced by the tokenizer.
+     */
+    public int getCommentTokens() {
+        return commentTokens;
+    }
+
+    /**
+     * @return Number of tokens not allowed in the last open tag, which were moved to the first
+     * open tag that may hold them.
+     */
+    public int getMovedTokens() {
+        return movedTokens;
+    }
+
+    /**
+     * @return Number of tags closed without their end tag - by some other tag or at the end of content.
+     */
+    public int getImplicitlyClosedTags() {
+        return implicitlyClosedTags;
+    }
+
+    /**
+     * @return Number of tags copied after being implicitly closed.
+     */
+    public int getCopiedTags() {
+        return copiedTags;
+    }
+
+    /**
+     * @return Number of required parent tags inserted before tags missing them (for example tr before td).
+     */
+    public int getAddedParentTags() {
+        return addedParentTags;
+    }
+
+    /**
+     * @return Number of nodes removed because of CleanerProperties.setPruneTags().
+     */
+    public int getPrunedNodes() {
+        return prunedNodes;
+    }
+
+    /**
+     * @return Maximal number of tags open at the same time.
+     */
+    public int getMaxOpenTagDepth() {
+        return maxOpenTagDepth;
+    }
+
+    /**
+     * @return Maximal size of the list of tokens held by the tokenizer.
+     */
+    public int getPeakTokenListSize() {
+        return peakTokenListSize;
+    }
+
+    /**
+     * @return Time in nanoseconds spent in the tokenizer, without the tree building.
+     */
+    public long getTokenizerTime() {
+        return parseNanos - makeTreeNanos;
+    }
+
+    /**
+     * @return Time in nanoseconds spent in building the tree, both during and after tokenizing.
+     */
+    public long getBuilderTime() {
+        return makeTreeNanos + documentNanos;
+    }
+
+    /**
+     * @return Number of whitespace text nodes between block tags which were not created
+     * (see CleanerProperties.setCompactTextNodes()).
+     */
+    public int getOmittedWhitespaceNodes() {
+        return omittedWhitespaceNodes;
+    }
+
+    /**
+     * @return Number of characters in the omitted whitespace text nodes.
+     */
+    public long getOmittedWhitespaceChars() {
+        return omittedWhitespaceChars;
+    }
+
+    /**
+     * @return Number of text nodes which share the content with some other node, instead of
+     * holding their own copy.
+     */
+    public int getSharedTextNodes() {
+        return sharedTextNodes;
+    }
+
+    /**
+     * @return Number of characters not copied thanks to the shared content.
+     */
+    public long getSharedTextChars() {
+        return sharedTextChars;
+    }
+
+    /**
+     * @return Approximate number of bytes of memory saved by omitted and shared text nodes. Omitted
+     * node with its string is counted as 64 bytes, shared string as 40 bytes and each character as 2 bytes.
+     */
+    public long getSavedBytes() {
+        return 64L * omittedWhitespaceNodes + 40L * sharedTextNodes + 2 * (omittedWhitespaceChars + sharedTextChars);
+    }
+
+    public String toString() {
+        return "start tags: " + startTags + ", end tags: " + endTags + ", texts: " + textTokens + ", comments: " + commentTokens + ", " +
+               "moved tokens: " + movedTokens + ", implicitly closed tags: " + implicitlyClosedTags + ", " +
+               "copied tags: " + copiedTags + ", added parent tags: " + addedParentTags + ", pruned nodes: " + prunedNodes + ", " +
+               "max open tag depth: " + maxOpenTagDepth + ", peak token list size: " + peakTokenListSize + ", " +
+               "tokenizer time: " + getTokenizerTime() / 1000000 + " ms, builder time: " + getBuilderTime() / 1000000 + " ms, " +
+               "omitted whitespace nodes: " + omittedWhitespaceNodes + " (" + omittedWhitespaceChars + " chars), " +
+               "shared text nodes: " + sharedTextNodes + " (" + sharedTextChars + " chars), " +
+               "saved bytes: " + getSavedBytes() +
+               (truncated ? ", truncated at: " + truncationOffset : "");
+    }
+
+}
@@ -69,6 +69,14 @@ public class CleanerProperties {
     boolean namespacesAware = false;
     String hyphenReplacementInComment = "=";
     String pruneTags = null;
+    String lazyTags = null;
+    boolean computeSubtreeHashes = false;
+    boolean compactTextNodes = false;
+    int maxOpenTagDepth = 0;
+    int maxCopyTagChain = 0;
+    int maxInputChars = 0;
+    int maxNodeCount = 0;
+    int maxTextChars = 0;
     String booleanAttributeValues = BOOL_ATT_SELF;
 
     public ITagInfoProvider getTagInfoProvider() {
@@ -243,6 +251,127 @@ public class CleanerProperties {
         this.pruneTags = pruneTags;
     }
 
+    public String getLazyTags() {
+        return lazyTags;
+    }
+
+    /**
+     * Defines containers whose content is not cleaned during the main pass. Value is comma separated
+     * list of tag names, each optionally followed by dot and class name, for example "td.forumPost".
+     * Raw content of such container is kept and cleaned only when its children are accessed first time.
+     * <p>Content is then cleaned as a fragment inside the container and its ancestors (see
+     * HtmlCleaner.cleanFragment()), separately from the rest of the page. For well-formed content the
+     * result is the same as with eager cleaning, but malformed markup crossing the container's
+     * boundaries may be cleaned differently: formatting tags left open before the container are not
+     * copied into it, and unmatched end tags inside it don't close anything outside. Lazy tags thus
+     * suit self-contained blocks, like posts of the forum page.</p>
+     * @param lazyTags
+     */
+    public void setLazyTags(String lazyTags) {
+        this.lazyTags = lazyTags;
+    }
+
+    public boolean isComputeSubtreeHashes() {
+        return computeSubtreeHashes;
+    }
+
+    /**
+     * Tells whether to compute hashes of all the subtrees (see TagNode.getSubtreeHash()) right
+     * after cleaning, instead of on the first request. Lazy containers are cleaned by this pass.
+     * @param computeSubtreeHashes
+     */
+    public void setComputeSubtreeHashes(boolean computeSubtreeHashes) {
+        this.computeSubtreeHashes = computeSubtreeHashes;
+    }
+
+    public boolean isCompactTextNodes() {
+        return compactTextNodes;
+    }
+
+    /**
+     * Tells whether to save memory taken by text nodes. If set, whitespace-only text between two
+     * block or table tags (for example indentation between rows and cells) is not kept, unless it
+     * is inside pre or textarea, and very common short texts share the same string instance.
+     * @param compactTextNodes
+     */
+    public void setCompactTextNodes(boolean compactTextNodes) {
+        this.compactTextNodes = compactTextNodes;
+    }
+
+    public int getMaxOpenTagDepth() {
+        return maxOpenTagDepth;
+    }
+
+    /**
+     * Limits number of tags open at the same time during cleaning. When the limit is reached, further
+     * start tags with body are ignored and their content stays in the last open tag. This keeps cleaning
+     * of the content with thousands of unclosed tags fast, since many cleaning rules look through all
+     * the open tags. Zero means no limit.
+     * @param maxOpenTagDepth
+     */
+    public void setMaxOpenTagDepth(int maxOpenTagDepth) {
+        this.maxOpenTagDepth = maxOpenTagDepth;
+    }
+
+    public int getMaxCopyTagChain() {
+        return maxCopyTagChain;
+    }
+
+    /**
+     * Limits number of tags copied after an implicitly closed tag - for example, formatting tags
+     * open when a paragraph starts are closed before it and copied again inside it. When the limit
+     * is reached, only the innermost tags are copied. Zero means no limit.
+     * @param maxCopyTagChain
+     */
+    public void setMaxCopyTagChain(int maxCopyTagChain) {
+        this.maxCopyTagChain = maxCopyTagChain;
+    }
+
+    public int getMaxInputChars() {
+        return maxInputChars;
+    }
+
+    /**
+     * Limits number of characters read from the input. Content after the limit is not read, even if
+     * it is in the middle of a token, all open tags are closed and the tree made of the content read
+     * so far is returned. Check isTruncated() of the returned root node to tell the truncated tree from
+     * the complete document; getTruncationOffset() and CleanStats tell where cleaning stopped.
+     * Zero means no limit.
+     * @param maxInputChars
+     */
+    public void setMaxInputChars(int maxInputChars) {
+        this.maxInputChars = maxInputChars;
+    }
+
+    public int getMaxNodeCount() {
+        return maxNodeCount;
+    }
+
+    /**
+     * Limits number of tag, text and comment nodes created from the input. When the limit is reached,
+     * cleaning stops before the next token, as with the limit of input characters. Check isTruncated()
+     * of the returned root node to tell the truncated tree from the complete document. Zero means no limit.
+     * @param maxNodeCount
+     */
+    public void setMaxNodeCount(int maxNodeCount) {
+        this.maxNodeCount = maxNodeCount;
+    }
+
+    public int getMaxTextChars() {
+        return maxTextChars;
+    }
+
+    /**
+     * Limits total number of characters in text and comment nodes and in the raw content of lazy
+     * containers. Text, comment or lazy content reaching the limit is cut there and cleaning stops as
+     * with the limit of input characters. Check isTruncated() of the returned root node to tell the
+     * truncated tree from the complete document. Zero means no limit.
+     * @param maxTextChars
+     */
+    public void setMaxTextChars(int maxTextChars) {
+        this.maxTextChars = maxTextChars;
+    }
+
     public String getBooleanAttributeValues() {
         return booleanAttributeValues;
     }
@@ -45,7 +45,7 @@ import java.util.Map;
  */
 public class CleanerTransformations {
 
-    private Map mappings = new HashMap();
+    private Map<String, TagTransformation> mappings = new HashMap<String, TagTransformation>();
 
     /**
      * Adds specified tag transformation to the collection.
@@ -61,8 +61,12 @@ public class CleanerTransformations {
         return tagName != null && mappings.containsKey(tagName.toLowerCase());
     }
 
+    /**
+     * @param tagName
+     * @return Transformation of the specified tag, or null if tag is not transformed.
+     */
     public TagTransformation getTransformation(String tagName) {
-        return tagName != null ? (TagTransformation) mappings.get(tagName.toLowerCase()) : null; 
+        return tagName != null ? mappings.get(tagName.toLowerCase()) : null;
     }
 
 }
\ No newline at end of file
@@ -37,17 +37,18 @@
 
 package org.htmlcleaner;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.io.FileOutputStream;
+import java.io.*;
 import java.net.URL;
-import java.util.Map;
-import java.util.TreeMap;
-import java.util.Iterator;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
 
 /**
  * <p>Command line usage class.</p>
+ * <p>Besides single file or URL, source may be a directory, a glob pattern (like <code>pages/**&#47;*.html</code>)
+ * or <code>@file</code> listing source files one per line. In that batch mode all the files are cleaned
+ * in parallel with the same cleaner configuration and written to the destination directory, keeping
+ * their relative paths.</p>
  */
 public class CommandLine {
 
@@ -75,8 +76,9 @@ public class CommandLine {
     public static void main(String[] args) throws IOException, XPatherException {
         String source = getArgValue(args, "src");
         if ( "".equals(source) ) {
-            System.err.println("Usage: java -jar htmlcleanerXX.jar src = <url | file> [incharset = <charset>] " +
-                               "[dest = <file>] [outcharset = <charset>] [taginfofile=<file>] [options...]");
+            System.err.println("Usage: java -jar htmlcleanerXX.jar src = <url | file | directory | glob | @filelist> " +
+                               "[incharset = <charset>] [dest = <file | directory>] [outcharset = <charset>] " +
+                               "[taginfofile=<file>] [options...]");
             System.err.println("");
             System.err.println("where options include:");
             System.err.println("    outputtype=simple* | compact | browser-compact | pretty | htmlsimple | htmlcompact | htmlpretty");
@@ -103,6 +105,7 @@ public class CommandLine {
             System.err.println("    booleanatts=self* | empty | true");
             System.err.println("    nodebyxpath=<xpath expression>");
             System.err.println("    omitenvelope=true | false*");
+            System.err.println("    threads=<number value> [number of processors] - used in batch mode");
             System.err.println("    t:<sourcetagX>[=<desttag>[,<preserveatts>]]");
             System.err.println("    t:<sourcetagX>.<destattrY>[=<template>]");
             System.exit(1);
@@ -269,58 +272,316 @@ public class CommandLine {
             cleaner.setTransformations(transformations);
         }
 
+        String srcLowerCase = source.toLowerCase();
+        boolean isUrl = srcLowerCase.startsWith("http://") || srcLowerCase.startsWith("https://");
+
+        if ( !isUrl && isBatchSource(source) ) {
+            if ( destination == null || "".equals(destination.trim()) ) {
+                System.err.println("Destination directory must be specified in batch mode!");
+                System.exit(1);
+            }
+            String threads = getArgValue(args, "threads");
+            int threadCount = "".equals(threads) ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads);
+            Map<File, String> sources = collectSources(source);
+            String conflict = findDestinationConflict(sources);
+            if (conflict != null) {
+                System.err.println(conflict);
+                System.exit(1);
+            }
+            cleanBatch(cleaner, sources, new File(destination), inCharset, outCharset, outputType,
+                       nodeByXPath, omitEnvelope, Math.max(1, threadCount));
+            return;
+        }
+
         long start = System.currentTimeMillis();
 
         TagNode node;
 
-        String srcLowerCase = source.toLowerCase();
-        if ( srcLowerCase.startsWith("http://") || srcLowerCase.startsWith("https://") ) {
+        if (isUrl) {
             node = cleaner.clean(new URL(source), inCharset);
         } else {
             node = cleaner.clean(new File(source), inCharset);
         }
 
-        // if user specifies XPath expresssion to choose node for serialization, then
-        // try to evaluate XPath and look for first TagNode instance in the resulting array
+        node = selectNode(node, nodeByXPath, true);
+
+        OutputStream out;
+        if ( destination == null || "".equals(destination.trim()) ) {
+            out = System.out;
+        } else {
+            out = new FileOutputStream(destination);
+        }
+
+        createSerializer(outputType, props).writeToStream(node, out, outCharset, omitEnvelope);
+
+        System.out.println("Finished successfully in " + (System.currentTimeMillis() - start)+ "ms." );
+    }
+
+    /**
+     * If user specifies XPath expresssion to choose node for serialization, then
+     * tries to evaluate XPath and look for first TagNode instance in the resulting array.
+     */
+    private static TagNode selectNode(TagNode node, String nodeByXPath, boolean verbose) throws XPatherException {
         if ( !"".equals(nodeByXPath) ) {
             final Object[] xpathResult = node.evaluateXPath(nodeByXPath);
             int i;
             for (i = 0; i < xpathResult.length; i++) {
                 if ( xpathResult[i] instanceof TagNode ) {
                     node = (TagNode) xpathResult[i];
-                    System.out.println("Node successfully found by XPath.");
+                    if (verbose) {
+                        System.out.println("Node successfully found by XPath.");
+                    }
                     break;
                 }
             }
-            if (i == xpathResult.length) {
+            if (i == xpathResult.length && verbose) {
                 System.out.println("Node not found by XPath expression - whole html tree is going to be serialized!");
             }
         }
 
-        OutputStream out;
-        if ( destination == null || "".equals(destination.trim()) ) {
-            out = System.out;
-        } else {
-            out = new FileOutputStream(destination);
-        }
+        return node;
+    }
 
+    private static Serializer createSerializer(String outputType, CleanerProperties props) {
         if ( "compact".equals(outputType) ) {
-            new CompactXmlSerializer(props).writeToStream(node, out, outCharset, omitEnvelope);
+            return new CompactXmlSerializer(props);
         } else if ( "browser-compact".equals(outputType) ) {
-            new BrowserCompactXmlSerializer(props).writeToStream(node, out, outCharset, omitEnvelope);
+            return new BrowserCompactXmlSerializer(props);
         } else if ( "pretty".equals(outputType) ) {
-            new PrettyXmlSerializer(props).writeToStream(node, out, outCharset, omitEnvelope);
+            return new PrettyXmlSerializer(props);
         } else if ( "htmlsimple".equals(outputType) ) {
-            new SimpleHtmlSerializer(props).writeToStream(node, out, outCharset, omitEnvelope);
+            return new SimpleHtmlSerializer(props);
         } else if ( "htmlcompact".equals(outputType) ) {
-            new CompactHtmlSerializer(props).writeToStream(node, out, outCharset, omitEnvelope);
+            return new CompactHtmlSerializer(props);
         } else if ( "htmlpretty".equals(outputType) ) {
-            new PrettyHtmlSerializer(props).writeToStream(node, out, outCharset, omitEnvelope);
+            return new PrettyHtmlSerializer(props);
         } else {
-            new SimpleXmlSerializer(props).writeToStream(node, out, outCharset, omitEnvelope);
+            return new SimpleXmlSerializer(props);
         }
+    }
 
-        System.out.println("Finished successfully in " + (System.currentTimeMillis() - start)+ "ms." );
+    private static boolean isBatchSource(String source) {
+        return source.startsWith("@") || source.indexOf('*') >= 0 || source.indexOf('?') >= 0 ||
+               new File(source).isDirectory();
+    }
+
+    /**
+     * @param source Directory, glob pattern or @file with the list of files. Relative paths from the list
+     * keep their place below the destination directory, absolute ones and those reaching above the
+     * current directory are written to the destination directory under their file names.
+     * @return Map of source files to their paths relative to the destination directory
+     * @throws IOException
+     */
+    private static Map<File, String> collectSources(String source) throws IOException {
+        Map<File, String> sources = new LinkedHashMap<File, String>();
+
+        if ( source.startsWith("@") ) {
+            BufferedReader reader = new BufferedReader(new FileReader(source.substring(1)));
+            try {
+                String line;
+                while ( (line = reader.readLine()) != null ) {
+                    line = line.trim();
+                    if ( !"".equals(line) ) {
+                        File file = new File(line);
+                        String path = file.isAbsolute() ? null : normalizeRelativePath(line);
+                        sources.put(file, path != null ? path : file.getName());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } else if ( new File(source).isDirectory() ) {
+            collectFiles(new File(source), "", null, true, sources);
+        } else {
+            int wildcardIndex = source.indexOf('*');
+            if ( wildcardIndex < 0 || (source.indexOf('?') >= 0 && source.indexOf('?') < wildcardIndex) ) {
+                wildcardIndex = source.indexOf('?');
+            }
+            int separatorIndex = Math.max( source.lastIndexOf('/', wildcardIndex), source.lastIndexOf(File.separatorChar, wildcardIndex) );
+            File baseDir = separatorIndex < 0 ? new File(".") : new File( source.substring(0, separatorIndex + 1) );
+            String glob = source.substring(separatorIndex + 1).replace(File.separatorChar, '/');
+            boolean recursive = glob.indexOf('/') >= 0 || glob.indexOf("**") >= 0;
+            collectFiles(baseDir, "", globToPattern(glob), recursive, sources);
+        }
+
+        return sources;
+    }
+
+    /**
+     * @return Path with "." and ".." segments resolved and '/' separators, or null if the path leads
+     * out of the directory it is relative to.
+     */
+    private static String normalizeRelativePath(String path) {
+        LinkedList<String> segments = new LinkedList<String>();
+        for ( String segment: path.replace(File.separatorChar, '/').split("/") ) {
+            if ( "..".equals(segment) ) {
+                if ( segments.isEmpty() ) {
+                    return null;
+                }
+                segments.removeLast();
+            } else if ( !"".equals(segment) && !".".equals(segment) ) {
+                segments.add(segment);
+            }
+        }
+        if ( segments.isEmpty() ) {
+            return null;
+        }
+        StringBuilder result = new StringBuilder();
+        for (String segment: segments) {
+            if (result.length() > 0) {
+                result.append('/');
+            }
+            result.append(segment);
+        }
+        return result.toString();
+    }
+
+    /**
+     * @return Error message if two source entries would be written to the same destination file,
+     * or null if all the destinations are distinct.
+     */
+    private static String findDestinationConflict(Map<File, String> sources) {
+        Map<String, File> destinations = new HashMap<String, File>();
+        for (Map.Entry<File, String> entry: sources.entrySet()) {
+            File previous = destinations.put(entry.getValue(), entry.getKey());
+            if (previous != null) {
+                return "Both " + previous + " and " + entry.getKey() + " would be written to " + entry.getValue() + "!";
+            }
+        }
+        return null;
+    }
+
+    private static void collectFiles(File dir, String relativePath, Pattern pattern, boolean recursive, Map<File, String> sources) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file: files) {
+            String path = relativePath + file.getName();
+            if ( file.isDirectory() ) {
+                if (recursive) {
+                    collectFiles(file, path + "/", pattern, recursive, sources);
+                }
+            } else if ( pattern == null || pattern.matcher(path).matches() ) {
+                sources.put(file, path);
+            }
+        }
+    }
+
+    /**
+     * @return Regular expression for the glob, where <code>**</code> matches any path, <code>*</code> any
+     * part of the file name and <code>?</code> single character of the file name.
+     */
+    private static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char ch = glob.charAt(i);
+            if (ch == '*') {
+                if ( i + 1 < glob.length() && glob.charAt(i + 1) == '*' ) {
+                    i++;
+                    if ( i + 1 < glob.length() && glob.charAt(i + 1) == '/' ) {
+                        i++;
+                        regex.append("(.*/)?");
+                    } else {
+                        regex.append(".*");
+                    }
+                } else {
+                    regex.append("[^/]*");
+                }
+            } else if (ch == '?') {
+                regex.append("[^/]");
+            } else if ( Character.isLetterOrDigit(ch) ) {
+                regex.append(ch);
+            } else {
+                regex.append('\\').append(ch);
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Cleans all the source files using the pool of threads sharing the same cleaner, and prints
+     * throughput statistics at the end.
+     */
+    private static void cleanBatch(final HtmlCleaner cleaner, Map<File, String> sources, final File destDir,
+                                   final String inCharset, final String outCharset, final String outputType,
+                                   final String nodeByXPath, final boolean omitEnvelope, int threadCount) {
+        long start = System.currentTimeMillis();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        Map<File, Future<Long>> futures = new LinkedHashMap<File, Future<Long>>();
+        for (Map.Entry<File, String> entry: sources.entrySet()) {
+            final File source = entry.getKey();
+            final File dest = new File(destDir, entry.getValue());
+            futures.put(source, executor.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    long fileStart = System.nanoTime();
+                    cleanFile(cleaner, source, dest, inCharset, outCharset, outputType, nodeByXPath, omitEnvelope);
+                    return System.nanoTime() - fileStart;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        long[] times = new long[futures.size()];
+        int count = 0;
+        long totalBytes = 0;
+        for (Map.Entry<File, Future<Long>> entry: futures.entrySet()) {
+            try {
+                times[count++] = entry.getValue().get();
+                totalBytes += entry.getKey().length();
+            } catch (ExecutionException e) {
+                count--;
+                System.err.println("Failed to clean " + entry.getKey() + ": " + e.getCause());
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new HtmlCleanerException(e);
+            }
+        }
+
+        long time = Math.max(1, System.currentTimeMillis() - start);
+        double seconds = time / 1000d;
+        Arrays.sort(times, 0, count);
+
+        System.out.println( "Cleaned " + count + " of " + sources.size() + " files in " + time + "ms using " +
+                            threadCount + " threads." );
+        System.out.println( String.format("Throughput: %.1f files/s, %.2f MB/s",
+                                          count / seconds, totalBytes / (1024d * 1024d) / seconds) );
+        if (count > 0) {
+            System.out.println( String.format("Time per file: p50 %.1fms, p99 %.1fms",
+                                              getPercentile(times, count, 50) / 1e6, getPercentile(times, count, 99) / 1e6) );
+        }
+    }
+
+    private static void cleanFile(HtmlCleaner cleaner, File source, File dest, String inCharset, String outCharset,
+                                  String outputType, String nodeByXPath, boolean omitEnvelope) throws IOException, XPatherException {
+        TagNode node;
+        InputStream in = new FileInputStream(source);
+        try {
+            node = cleaner.clean(in, inCharset);
+        } finally {
+            in.close();
+        }
+
+        node = selectNode(node, nodeByXPath, false);
+
+        File parent = dest.getParentFile();
+        if ( parent != null && !parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory() ) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+
+        // serializers may keep state while writing, so each file gets its own
+        createSerializer(outputType, cleaner.getProperties()).writeToFile(node, dest.getPath(), outCharset, omitEnvelope);
+    }
+
+    /**
+     * @return Nearest-rank percentile of the first count sorted values.
+     */
+    private static long getPercentile(long[] sortedValues, int count, int percentile) {
+        int index = (int) Math.ceil(percentile / 100d * count) - 1;
+        return sortedValues[ Math.max(0, Math.min(count - 1, index)) ];
     }
 
 }
\ No newline at end of file
@@ -49,16 +49,37 @@ public class CommentNode implements BaseToken, HtmlNode {
 
     private StringBuilder content;
 
+    // content of the frozen node, which never changes again
+    private String frozenContent = null;
+
     public CommentNode(String content) {
         this.content = new StringBuilder(content);
     }
 
     public String getCommentedContent() {
-        return "<!--" + content + "-->";
+        return "<!--" + (frozenContent != null ? frozenContent : content) + "-->";
     }
 
+    /**
+     * @return Content of the comment. If the node is frozen (see TagNode.freeze()), a copy is
+     * returned, so changing it has no effect on the node.
+     */
     public StringBuilder getContent() {
-        return content;
+        return frozenContent != null ? new StringBuilder(frozenContent) : content;
+    }
+
+    /**
+     * @return Content of the comment, without copying it.
+     */
+    CharSequence getCharacters() {
+        return frozenContent != null ? frozenContent : content;
+    }
+
+    void freeze() {
+        if (frozenContent == null) {
+            frozenContent = content.toString();
+            content = null;
+        }
     }
 
     public String toString() {
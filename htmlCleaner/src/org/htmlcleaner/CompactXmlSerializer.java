@@ -60,7 +60,11 @@ public class CompactXmlSerializer extends XmlSerializer {
                 Object item = childrenIt.next();
                 if (item instanceof ContentNode) {
                     String content = item.toString().trim();
-                    writer.write( dontEscape(tagNode) ? content.replaceAll("]]>", "]]&gt;") : escapeXml(content) );
+                    if ( dontEscape(tagNode) ) {
+                        writeCDataContent(content, writer);
+                    } else {
+                        writeEscapedXml(content, writer);
+                    }
 
                     if (childrenIt.hasNext()) {
                         if ( !Utils.isWhitespaceString(childrenIt.next()) ) {
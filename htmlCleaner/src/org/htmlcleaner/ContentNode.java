@@ -45,27 +45,57 @@ import java.io.Writer;
  */
 public class ContentNode implements BaseToken, HtmlNode {
 
-    private StringBuilder content;
+    // content as string, possibly shared with other nodes - used until the content is requested for changing
+    private String text;
+    private StringBuilder content = null;
+
+    // frozen node never creates the builder
+    private boolean frozen = false;
 
     public ContentNode(String content) {
-        this.content = new StringBuilder(content);
+        this.text = content;
     }
 
     ContentNode(char content[], int len) {
-        this.content = new StringBuilder(len + 16);
-        this.content.append(content, 0, len);
+        this.text = new String(content, 0, len);
     }
 
     public String toString() {
-        return content.toString();
+        return content != null ? content.toString() : text;
     }
 
+    /**
+     * @return Content of the node. If the node is frozen (see TagNode.freeze()), a copy is
+     * returned, so changing it has no effect on the node.
+     */
     public StringBuilder getContent() {
+        if (frozen) {
+            return new StringBuilder(text);
+        }
+        if (content == null) {
+            content = new StringBuilder(text);
+            text = null;
+        }
         return content;
     }
 
+    /**
+     * @return Content of the node for reading, without copying it.
+     */
+    CharSequence getCharacters() {
+        return content != null ? content : text;
+    }
+
+    void freeze() {
+        if (content != null) {
+            text = content.toString();
+            content = null;
+        }
+        frozen = true;
+    }
+
     public void serialize(Serializer serializer, Writer writer) throws IOException {
-    	writer.write( content.toString() );
+    	writer.write( toString() );
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,230 @@
+/*  Copyright (c) 2006-2007, Vladimir Nikic
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+    You can contact Vladimir Nikic by sending e-mail to
+    nikic_vladimir@yahoo.com. Please include the word "HtmlCleaner" in the
+    subject line.
+*/
+
+package org.htmlcleaner;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Writer which encodes characters directly into the byte channel. Character and byte buffers,
+ * together with charset encoders, are pooled per thread and reused by the next writer created
+ * in the same thread after this one is closed, so writing many documents doesn't allocate new
+ * buffers or encoders. Output is buffered, so no additional BufferedWriter is needed.</p>
+ * <p>Malformed and unmappable characters are replaced, the same as in OutputStreamWriter.
+ * Instances are not thread safe.</p>
+ */
+public class EncodingWriter extends Writer {
+
+    private static final int CHAR_BUFFER_SIZE = 8192;
+    private static final int BYTE_BUFFER_SIZE = 16384;
+
+    /**
+     * Buffers and encoders owned by one writer at the time.
+     */
+    private static class Buffers {
+        private CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+        private ByteBuffer bytes = ByteBuffer.allocate(BYTE_BUFFER_SIZE);
+        private Map<Charset, CharsetEncoder> encoders = new HashMap<Charset, CharsetEncoder>();
+
+        private CharsetEncoder getEncoder(Charset charset) {
+            CharsetEncoder encoder = encoders.get(charset);
+            if (encoder == null) {
+                encoder = charset.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                encoders.put(charset, encoder);
+            }
+            return encoder;
+        }
+    }
+
+    // free buffers of the current thread, null while they are used by some writer
+    private static final ThreadLocal<Buffers> pool = new ThreadLocal<Buffers>();
+
+    private WritableByteChannel channel;
+    private Buffers buffers;
+    private CharBuffer chars;
+    private ByteBuffer bytes;
+    private CharsetEncoder encoder;
+
+    public EncodingWriter(WritableByteChannel channel, String charset) throws UnsupportedEncodingException {
+        this(channel, forName(charset));
+    }
+
+    public EncodingWriter(WritableByteChannel channel, Charset charset) {
+        this.channel = channel;
+        this.buffers = pool.get();
+        if (buffers != null) {
+            pool.set(null);
+        } else {
+            buffers = new Buffers();
+        }
+        this.chars = buffers.chars;
+        this.bytes = buffers.bytes;
+        this.encoder = buffers.getEncoder(charset);
+    }
+
+    /**
+     * @return Charset with specified name, failing the same way as OutputStreamWriter does.
+     */
+    static Charset forName(String charset) throws UnsupportedEncodingException {
+        try {
+            return Charset.forName(charset);
+        } catch (IllegalCharsetNameException e) {
+            throw new UnsupportedEncodingException(charset);
+        } catch (UnsupportedCharsetException e) {
+            throw new UnsupportedEncodingException(charset);
+        }
+    }
+
+    public void write(int c) throws IOException {
+        ensureOpen();
+        if ( !chars.hasRemaining() ) {
+            encode(false);
+        }
+        chars.put((char) c);
+    }
+
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if ( !chars.hasRemaining() ) {
+                encode(false);
+            }
+            int count = Math.min(len, chars.remaining());
+            chars.put(cbuf, off, count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    public void write(String str, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if ( !chars.hasRemaining() ) {
+                encode(false);
+            }
+            int count = Math.min(len, chars.remaining());
+            chars.put(str, off, off + count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Encodes and writes all buffered characters to the channel, except the first half
+     * of a surrogate pair which waits for its second half.
+     */
+    public void flush() throws IOException {
+        ensureOpen();
+        encode(false);
+        drain();
+    }
+
+    /**
+     * Writes the rest of the output and closes the channel. Buffers are given back
+     * to the pool of the current thread.
+     */
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            encode(true);
+            while ( encoder.flush(bytes).isOverflow() ) {
+                drain();
+            }
+            drain();
+            channel.close();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Gives buffers back to the pool of the current thread without writing anything more.
+     * Used when writing failed, so that the pooled buffers are not lost with this writer.
+     * Does nothing if the writer is already closed.
+     */
+    void release() {
+        if (buffers == null) {
+            return;
+        }
+        channel = null;
+        encoder.reset();
+        chars.clear();
+        bytes.clear();
+        pool.set(buffers);
+        buffers = null;
+    }
+
+    private void encode(boolean endOfInput) throws IOException {
+        chars.flip();
+        CoderResult result = encoder.encode(chars, bytes, endOfInput);
+        while ( result.isOverflow() ) {
+            drain();
+            result = encoder.encode(chars, bytes, endOfInput);
+        }
+        if ( result.isError() ) {
+            result.throwException();
+        }
+        chars.compact();
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while ( bytes.hasRemaining() ) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (channel == null) {
+            throw new IOException("Writer is closed!");
+        }
+    }
+
+}
@@ -85,6 +85,7 @@ import java.util.*;
  *   new XXXSerializer(props).writeXmlXXX(aNode, ...);
  *   myJDom = new JDomSerializer(props, true).createJDom(aNode);
  *   myDom = new DomSerializer(props, true).createDOM(aNode);
+ *   new SaxSerializer(props, true).serialize(aNode, myContentHandler);
  * </xmp>
  */
 public class HtmlCleaner {
@@ -229,6 +230,13 @@ public class HtmlCleaner {
 
         private Set<String> pruneTagSet = new HashSet<String>();
         private Set<TagNode> pruneNodeSet = new HashSet<TagNode>();
+
+        // statistics requested by the caller, or null
+        private CleanStats stats;
+
+        // start token which closes the open tags and copies them inside itself, with number of copies made
+        private TagNode copyChainToken = null;
+        private int copyChainLength = 0;
     }
 
     private CleanerProperties properties;
@@ -237,6 +245,9 @@ public class HtmlCleaner {
 
     private CleanerTransformations transformations = null;
 
+    // serializer used for inner html, stateless so shared by all calls
+    private SimpleXmlSerializer innerHtmlSerializer;
+
     /**
      * Constructor - creates cleaner instance with default tag info provider and default properties.
      */
@@ -269,6 +280,7 @@ public class HtmlCleaner {
         this.tagInfoProvider = tagInfoProvider == null ? DefaultTagProvider.getInstance() : tagInfoProvider;
         this.properties = properties == null ? new CleanerProperties() : properties;
         this.properties.tagInfoProvider = this.tagInfoProvider;
+        this.innerHtmlSerializer = new SimpleXmlSerializer(this.properties);
     }
 
     public TagNode clean(String htmlContent) {
@@ -280,6 +292,21 @@ public class HtmlCleaner {
         }
     }
 
+    /**
+     * Cleans the content and fills in statistics of the cleaning.
+     * @param htmlContent
+     * @param stats Statistics to be filled in
+     * @return An instance of TagNode object which is the root of the XML tree.
+     */
+    public TagNode clean(String htmlContent, CleanStats stats) {
+        try {
+            return clean( new StringReader(htmlContent), stats );
+        } catch (IOException e) {
+            // should never happen because reading from StringReader
+            throw new HtmlCleanerException(e);
+        }
+    }
+
     public TagNode clean(File file, String charset) throws IOException {
         FileInputStream in = new FileInputStream(file);
         Reader reader = new InputStreamReader(in, charset);
@@ -295,13 +322,20 @@ public class HtmlCleaner {
         if (charset == null) {
             charset = Utils.getCharsetFromContentTypeString( urlConnection.getHeaderField("Content-Type") );
         }
-        if (charset == null) {
-            charset = Utils.getCharsetFromContent(url);
-        }
-        if (charset == null) {
-            charset = DEFAULT_CHARSET;
+
+        // headers, META tags and the content itself are all read from the same connection
+        InputStream in = new BufferedInputStream( urlConnection.getInputStream() );
+        try {
+            if (charset == null) {
+                charset = Utils.getCharsetFromContent(in);
+            }
+            if (charset == null) {
+                charset = DEFAULT_CHARSET;
+            }
+            return clean(in, charset);
+        } finally {
+            in.close();
         }
-        return clean(url.openStream(), charset);
     }
 
     /**
@@ -329,6 +363,22 @@ public class HtmlCleaner {
         return clean(reader, new CleanTimeValues());
     }
 
+    /**
+     * Cleans the content and fills in statistics of the cleaning.
+     * @param reader
+     * @param stats Statistics to be filled in
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws IOException
+     */
+    public TagNode clean(Reader reader, CleanStats stats) throws IOException {
+        CleanTimeValues cleanTimeValues = new CleanTimeValues();
+        cleanTimeValues.stats = stats;
+        if (stats != null) {
+            stats.reset();
+        }
+        return clean(reader, cleanTimeValues);
+    }
+
     /**
      * Basic version of the cleaning call.
      * @param reader
@@ -336,6 +386,135 @@ public class HtmlCleaner {
      * @throws IOException
      */
     public TagNode clean(Reader reader, final CleanTimeValues cleanTimeValues) throws IOException {
+        return clean(reader, cleanTimeValues, null);
+    }
+
+    /**
+     * Cleans the content using specified checkpoint. If checkpoint's state is already saved and
+     * the content starts with the same prefix, cleaning continues from the saved state and only the
+     * rest of the content is parsed. Otherwise, whole content is cleaned and checkpoint's state is
+     * saved when the content reaches checkpoint's offset.
+     * @param reader
+     * @param checkpoint
+     * @return An instance of TagNode object which is the root of the XML tree.
+     * @throws IOException
+     */
+    public TagNode clean(Reader reader, CleanCheckpoint checkpoint) throws IOException {
+        checkpoint.setResumed(false);
+        if ( checkpoint.isCaptured() ) {
+            int prefixLength = checkpoint.getPrefixLength();
+            char prefix[] = new char[prefixLength];
+            int count = 0;
+            int charsRead;
+            while ( count < prefixLength && (charsRead = reader.read(prefix, count, prefixLength - count)) >= 0 ) {
+                count += charsRead;
+            }
+
+            PushbackReader pushbackReader = new PushbackReader(reader, Math.max(count, 1));
+            if ( checkpoint.getCleaner() == this && count == prefixLength && checkpoint.matchesPrefix(prefix) ) {
+                // the last character of the prefix is the first one to be parsed after resume
+                pushbackReader.unread(prefix, prefixLength - 1, 1);
+                checkpoint.setResumed(true);
+                return resume(pushbackReader, checkpoint);
+            }
+
+            pushbackReader.unread(prefix, 0, count);
+            reader = pushbackReader;
+            checkpoint.reset();
+        }
+
+        return clean(reader, new CleanTimeValues(), checkpoint);
+    }
+
+    private TagNode clean(Reader reader, final CleanTimeValues cleanTimeValues, CleanCheckpoint checkpoint) throws IOException {
+        initCleanTimeValues(cleanTimeValues);
+
+        HtmlTokenizer htmlTokenizer = createTokenizer(reader, cleanTimeValues);
+        if (checkpoint != null) {
+            htmlTokenizer.setCheckpoint(checkpoint);
+        }
+
+        long startTime = System.nanoTime();
+		htmlTokenizer.start();
+        if (cleanTimeValues.stats != null) {
+            cleanTimeValues.stats.addParseTime( System.nanoTime() - startTime );
+        }
+
+        return createDocument(htmlTokenizer, cleanTimeValues);
+    }
+
+    /**
+     * Cleans the fragment of HTML as if it was the content of specified node in its tree. Cleaning starts
+     * with the node and its ancestors already open, so only the fragment itself is parsed and the cost
+     * doesn't depend on the position of the node. Lazy tags are not applied to the fragment. Node and
+     * its tree are not changed.
+     * @param contextNode Node in which content the fragment is supposed to be
+     * @param reader Fragment of HTML
+     * @return List of the cleaned top-level nodes of the fragment, without parent, ready to be added to
+     * the context node.
+     * @throws IOException
+     */
+    public List cleanFragment(TagNode contextNode, Reader reader) throws IOException {
+        if (contextNode == null) {
+            throw new HtmlCleanerException("Cannot clean fragment in context of the null node!");
+        }
+
+        CleanTimeValues cleanTimeValues = new CleanTimeValues();
+        initCleanTimeValues(cleanTimeValues);
+
+        List<TagNode> path = new ArrayList<TagNode>();
+        for (TagNode node = contextNode; node != null; node = node.getParent()) {
+            path.add(node);
+        }
+
+        // ancestors become open start tokens, except the envelope tags which only mark the sections opened
+        List<BaseToken> contextTokens = new ArrayList<BaseToken>(path.size());
+        TagNode container = null;
+        for (int i = path.size() - 1; i >= 0; i--) {
+            String name = path.get(i).getName();
+            if ( "html".equals(name) ) {
+                container = cleanTimeValues.htmlNode;
+            } else if ( "body".equals(name) ) {
+                cleanTimeValues._bodyOpened = true;
+                container = cleanTimeValues.bodyNode;
+            } else if ( "head".equals(name) ) {
+                cleanTimeValues._headOpened = true;
+                container = cleanTimeValues.headNode;
+            } else {
+                container = new TagNode(name);
+                cleanTimeValues.allTags.add(name);
+                cleanTimeValues._openTags.addTag( name, contextTokens.size() );
+                contextTokens.add(container);
+            }
+        }
+
+        HtmlTokenizer htmlTokenizer = createTokenizer(reader, cleanTimeValues);
+        // fragment is cleaned at once, the same as content of the lazy node being materialized
+        htmlTokenizer.disableLazyTags();
+        htmlTokenizer.startFragment( contextTokens, "script".equals(contextNode.getName()) );
+
+        List<BaseToken> nodeList = htmlTokenizer.getTokenList();
+        closeAll(nodeList, cleanTimeValues);
+        createDocumentNodes(nodeList, cleanTimeValues);
+        pruneNodes(cleanTimeValues);
+
+        return container.detachChildren();
+    }
+
+    /**
+     * Cleans the fragment of HTML as if it was the content of specified node in its tree.
+     * @see #cleanFragment(TagNode, Reader)
+     */
+    public List cleanFragment(TagNode contextNode, String fragment) {
+        try {
+            return cleanFragment( contextNode, new StringReader(fragment) );
+        } catch (IOException e) {
+            // should never happen because reading from StringReader
+            throw new HtmlCleanerException(e);
+        }
+    }
+
+    private void initCleanTimeValues(CleanTimeValues cleanTimeValues) {
         cleanTimeValues._openTags = new OpenTags();
         cleanTimeValues._headOpened = false;
         cleanTimeValues._bodyOpened = false;
@@ -349,28 +528,85 @@ public class HtmlCleaner {
         cleanTimeValues.rootNode = null;
         cleanTimeValues.htmlNode.addChild(cleanTimeValues.headNode);
         cleanTimeValues.htmlNode.addChild(cleanTimeValues.bodyNode);
+    }
 
+    /**
+     * Restores the state saved in the checkpoint and cleans the rest of the content.
+     */
+    private TagNode resume(Reader reader, CleanCheckpoint checkpoint) throws IOException {
+        Map<Object, Object> copies = new IdentityHashMap<Object, Object>();
+        List<BaseToken> tokenList = copyTokenList(checkpoint.getTokenList(), copies);
+        CleanTimeValues cleanTimeValues = copyCleanTimeValues((CleanTimeValues) checkpoint.getCleanTimeValues(), copies);
+
+        HtmlTokenizer htmlTokenizer = createTokenizer(reader, cleanTimeValues);
+        htmlTokenizer.resume(checkpoint, tokenList);
+
+        return createDocument(htmlTokenizer, cleanTimeValues);
+    }
+
+    private HtmlTokenizer createTokenizer(Reader reader, final CleanTimeValues cleanTimeValues) throws IOException {
         HtmlTokenizer htmlTokenizer = new HtmlTokenizer(reader, properties, transformations, tagInfoProvider) {
             @Override
             void makeTree(List<BaseToken> tokenList) {
-                HtmlCleaner.this.makeTree( tokenList, tokenList.listIterator(tokenList.size() - 1), cleanTimeValues );
+                CleanStats stats = cleanTimeValues.stats;
+                if (stats != null) {
+                    long startTime = System.nanoTime();
+                    HtmlCleaner.this.makeTree( tokenList, tokenList.listIterator(tokenList.size() - 1), cleanTimeValues );
+                    stats.addMakeTreeTime( System.nanoTime() - startTime );
+                } else {
+                    HtmlCleaner.this.makeTree( tokenList, tokenList.listIterator(tokenList.size() - 1), cleanTimeValues );
+                }
             }
 
             @Override
             TagNode createTagNode(String name) {
                 return HtmlCleaner.this.createTagNode(name, cleanTimeValues); 
             }
-        };
 
-		htmlTokenizer.start();
+            @Override
+            void makeLazy(TagNode tagNode, String rawContent) {
+                tagNode.setLazyContent(rawContent, HtmlCleaner.this);
+            }
 
+            @Override
+            void makeCheckpoint(CleanCheckpoint checkpoint) {
+                Map<Object, Object> copies = new IdentityHashMap<Object, Object>();
+                List<BaseToken> tokenList = copyTokenList(getTokenList(), copies);
+                checkpoint.setCleanerState( HtmlCleaner.this, tokenList, copyCleanTimeValues(cleanTimeValues, copies) );
+            }
+        };
+        htmlTokenizer.setStats(cleanTimeValues.stats);
+        return htmlTokenizer;
+    }
+
+    private TagNode createDocument(HtmlTokenizer htmlTokenizer, CleanTimeValues cleanTimeValues) {
+        long startTime = System.nanoTime();
         List<BaseToken> nodeList = htmlTokenizer.getTokenList();
         closeAll(nodeList, cleanTimeValues);
         createDocumentNodes(nodeList, cleanTimeValues);
 
         calculateRootNode(cleanTimeValues);
 
-        // if there are some nodes to prune from tree
+        pruneNodes(cleanTimeValues);
+
+        cleanTimeValues.rootNode.setDocType( htmlTokenizer.getDocType() );
+        cleanTimeValues.rootNode.setTruncationOffset( htmlTokenizer.getTruncationOffset() );
+
+        if ( properties.isComputeSubtreeHashes() ) {
+            cleanTimeValues.rootNode.getSubtreeHash();
+        }
+
+        if (cleanTimeValues.stats != null) {
+            cleanTimeValues.stats.addDocumentTime( System.nanoTime() - startTime );
+        }
+
+        return cleanTimeValues.rootNode;
+    }
+
+    /**
+     * Removes nodes to be pruned from the tree, if there are any.
+     */
+    private void pruneNodes(CleanTimeValues cleanTimeValues) {
         if ( cleanTimeValues.pruneNodeSet != null && !cleanTimeValues.pruneNodeSet.isEmpty() ) {
             Iterator iterator = cleanTimeValues.pruneNodeSet.iterator();
             while (iterator.hasNext()) {
@@ -378,13 +614,43 @@ public class HtmlCleaner {
                 TagNode parent = tagNode.getParent();
                 if (parent != null) {
                     parent.removeChild(tagNode);
+                    if (cleanTimeValues.stats != null) {
+                        cleanTimeValues.stats.addPrunedNode();
+                    }
                 }
             }
         }
+    }
 
-        cleanTimeValues.rootNode.setDocType( htmlTokenizer.getDocType() );
+    private List<BaseToken> copyTokenList(List<BaseToken> tokenList, Map<Object, Object> copies) {
+        List<BaseToken> copy = new ArrayList<BaseToken>(tokenList.size());
+        for (BaseToken token: tokenList) {
+            copy.add( (BaseToken) CleanCheckpoint.copy(token, copies) );
+        }
+        return copy;
+    }
 
-        return cleanTimeValues.rootNode;
+    private CleanTimeValues copyCleanTimeValues(CleanTimeValues cleanTimeValues, Map<Object, Object> copies) {
+        CleanTimeValues copy = new CleanTimeValues();
+        copy._openTags = new OpenTags();
+        for (TagPos tagPos: cleanTimeValues._openTags.list) {
+            copy._openTags.addTag(tagPos.name, tagPos.position);
+        }
+        copy._openTags.set.addAll(cleanTimeValues._openTags.set);
+        copy._headOpened = cleanTimeValues._headOpened;
+        copy._bodyOpened = cleanTimeValues._bodyOpened;
+        for (Object headTag: cleanTimeValues._headTags) {
+            copy._headTags.add( CleanCheckpoint.copy(headTag, copies) );
+        }
+        copy.allTags.addAll(cleanTimeValues.allTags);
+        copy.htmlNode = (TagNode) CleanCheckpoint.copy(cleanTimeValues.htmlNode, copies);
+        copy.bodyNode = (TagNode) CleanCheckpoint.copy(cleanTimeValues.bodyNode, copies);
+        copy.headNode = (TagNode) CleanCheckpoint.copy(cleanTimeValues.headNode, copies);
+        copy.pruneTagSet.addAll(cleanTimeValues.pruneTagSet);
+        for (TagNode pruneNode: cleanTimeValues.pruneNodeSet) {
+            copy.pruneNodeSet.add( (TagNode) CleanCheckpoint.copy(pruneNode, copies) );
+        }
+        return copy;
     }
 
     private TagNode createTagNode(String name, CleanTimeValues cleanTimeValues) {
@@ -397,6 +663,9 @@ public class HtmlCleaner {
 
     private TagNode makeTagNodeCopy(TagNode tagNode, CleanTimeValues cleanTimeValues) {
         TagNode copy = tagNode.makeCopy();
+        if (cleanTimeValues.stats != null) {
+            cleanTimeValues.stats.addCopiedTag();
+        }
         if ( cleanTimeValues.pruneTagSet != null && cleanTimeValues.pruneTagSet.contains(tagNode.getName()) ) {
             cleanTimeValues.pruneNodeSet.add(copy);
         }
@@ -495,6 +764,14 @@ public class HtmlCleaner {
     	return false;
     }
 
+    private boolean isOpenTagDepthExceeded(CleanTimeValues cleanTimeValues) {
+        return properties.maxOpenTagDepth > 0 && cleanTimeValues._openTags.list.size() >= properties.maxOpenTagDepth;
+    }
+
+    private boolean isCopyTagChainFull(int copyCount) {
+        return properties.maxCopyTagChain > 0 && copyCount >= properties.maxCopyTagChain;
+    }
+
     private TagNode createTagNode(TagNode startTagToken) {
     	startTagToken.setFormed();
     	return startTagToken;
@@ -521,6 +798,9 @@ public class HtmlCleaner {
         if (rubbishPos != null) {
     		TagNode startTagToken = (TagNode) nodeList.get(rubbishPos.position);
             startTagToken.addItemForMoving(tokenToAdd);
+            if (cleanTimeValues.stats != null) {
+                cleanTimeValues.stats.addMovedToken();
+            }
         }
     }
 
@@ -548,11 +828,13 @@ public class HtmlCleaner {
                     if (matchingPosition != null) {
                         List closed = closeSnippet(nodeList, matchingPosition, endTagToken, cleanTimeValues);
                         nodeIterator.set(null);
-                        for (int i = closed.size() - 1; i >= 1; i--) {
+                        int copyCount = 0;
+                        for (int i = closed.size() - 1; i >= 1 && !isCopyTagChainFull(copyCount); i--) {
                             TagNode closedTag = (TagNode) closed.get(i);
                             if ( tag != null && tag.isContinueAfter(closedTag.getName()) ) {
                                 nodeIterator.add( makeTagNodeCopy(closedTag, cleanTimeValues) );
                                 nodeIterator.previous();
+                                copyCount++;
                             }
                         }
                     } else if ( !isAllowedInLastOpenTag(token, cleanTimeValues) ) {
@@ -588,6 +870,9 @@ public class HtmlCleaner {
                 // unknown HTML tag and unknown tags are not allowed
                 } else if ( (tag == null && properties.omitUnknownTags) || (tag != null && tag.isDeprecated() && properties.omitDeprecatedTags) ) {
                     nodeIterator.set(null);
+                // if too many tags are open, tag with body is ignored before any rule could add more tags
+                } else if ( (tag == null || tag.allowsBody()) && isOpenTagDepthExceeded(cleanTimeValues) ) {
+                    nodeIterator.set(null);
                 // if current tag is unknown, unknown tags are allowed and last open tag doesn't allow any other tags in its body
                 } else if ( tag == null && lastTagInfo != null && !lastTagInfo.allowsAnything() ) {
                     saveToLastOpenTag(nodeList, token, cleanTimeValues);
@@ -604,6 +889,9 @@ public class HtmlCleaner {
                 } else if ( mustAddRequiredParent(tag, cleanTimeValues) ) {
 					String requiredParent = tag.getRequiredParent();
 					TagNode requiredParentStartToken = createTagNode(requiredParent, cleanTimeValues);
+                    if (cleanTimeValues.stats != null) {
+                        cleanTimeValues.stats.addParentTag();
+                    }
 					nodeIterator.previous();
 					nodeIterator.add(requiredParentStartToken);
 					nodeIterator.previous();
@@ -614,14 +902,21 @@ public class HtmlCleaner {
 
 					// it is needed to copy some tags again in front of current, if there are any
 					if ( tag.hasCopyTags() && closedCount > 0 ) {
+                        // the same token closes the open tags one by one, all its copies make the chain
+                        if (cleanTimeValues.copyChainToken != startTagToken) {
+                            cleanTimeValues.copyChainToken = startTagToken;
+                            cleanTimeValues.copyChainLength = 0;
+                        }
+
 						// first iterates over list from the back and collects all start tokens
 						// in sequence that must be copied
 						ListIterator closedIt = closed.listIterator(closedCount);
 						List toBeCopied = new ArrayList();
-						while (closedIt.hasPrevious()) {
+						while ( closedIt.hasPrevious() && !isCopyTagChainFull(cleanTimeValues.copyChainLength) ) {
 							TagNode currStartToken = (TagNode) closedIt.previous();
 							if ( tag.isCopy(currStartToken.getName()) ) {
 								toBeCopied.add(0, currStartToken);
+                                cleanTimeValues.copyChainLength++;
 							} else {
 								break;
 							}
@@ -654,6 +949,9 @@ public class HtmlCleaner {
 				// default case - just remember this open tag and go further
                 } else {
                     cleanTimeValues._openTags.addTag( tagName, nodeIterator.previousIndex() );
+                    if (cleanTimeValues.stats != null) {
+                        cleanTimeValues.stats.updateOpenTagDepth( cleanTimeValues._openTags.list.size() );
+                    }
                 }
 			} else {
 				if ( !isAllowedInLastOpenTag(token, cleanTimeValues) ) {
@@ -769,6 +1067,12 @@ public class HtmlCleaner {
 			}
 		}
 
+        // only the tag matching the end token is closed explicitly
+        if (cleanTimeValues.stats != null) {
+            int explicitlyClosed = (toNode instanceof EndTagToken) && !closed.isEmpty() ? 1 : 0;
+            cleanTimeValues.stats.addImplicitlyClosedTags( closed.size() - explicitlyClosed );
+        }
+
 		return closed;
     }
 
@@ -838,46 +1142,51 @@ public class HtmlCleaner {
      */
     public String getInnerHtml(TagNode node) {
         if (node != null) {
+            if ( innerHtmlSerializer.isMinimizedTagSyntax(node) ) {
+                return null;
+            }
+            StringWriter writer = new StringWriter();
             try {
-                String content = new SimpleXmlSerializer(properties).getAsString(node);
-                int index1 = content.indexOf("<" + node.getName());
-                index1 = content.indexOf('>', index1 + 1);
-                int index2 = content.lastIndexOf('<');
-                return index1 >= 0 && index1 <= index2 ? content.substring(index1 + 1, index2) : null;
+                innerHtmlSerializer.writeChildren(node, writer);
             } catch (IOException e) {
+                // should never happen because writing to StringWriter
                 throw new HtmlCleanerException(e);
             }
+            return writer.toString();
         } else {
             throw new HtmlCleanerException("Cannot return inner html of the null node!");
         }
     }
 
+    /**
+     * For the specified node, writes it's content to the writer, without building
+     * the string of the whole node first. Writer is neither flushed nor closed.
+     * @param node
+     * @param writer
+     * @throws IOException
+     */
+    public void writeInnerHtml(TagNode node, Writer writer) throws IOException {
+        if (node != null) {
+            if ( !innerHtmlSerializer.isMinimizedTagSyntax(node) ) {
+                innerHtmlSerializer.writeChildren(node, writer);
+            }
+        } else {
+            throw new HtmlCleanerException("Cannot write inner html of the null node!");
+        }
+    }
+
     /**
      * For the specified tag node, defines it's html content. This causes cleaner to
-     * reclean given html portion and insert it inside the node instead of previous content.
+     * clean given html portion in context of the node (see cleanFragment()) and insert
+     * it inside the node instead of previous content.
      * @param node
      * @param content
      */
     public void setInnerHtml(TagNode node, String content) {
         if (node != null) {
-            String nodeName = node.getName();
-            StringBuilder html = new StringBuilder();
-            html.append("<" + nodeName + " marker=''>");
-            html.append(content);
-            html.append("</" + nodeName + ">");
-            TagNode parent = node.getParent();
-            while (parent != null) {
-                String parentName = parent.getName();
-                html.insert(0, "<" + parentName + ">");
-                html.append("</" + parentName + ">");
-                parent = parent.getParent();
-            }
-
-            TagNode rootNode = clean( html.toString() );
-            TagNode cleanedNode = rootNode.findElementHavingAttribute("marker", true);
-            if (cleanedNode != null) {
-                node.setChildren( cleanedNode.getChildren() );
-            }
+            List children = cleanFragment(node, content);
+            node.removeAllChildren();
+            node.addChildren(children);
         }
     }
 
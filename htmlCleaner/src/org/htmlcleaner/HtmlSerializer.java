@@ -45,6 +45,10 @@ import java.util.*;
  */
 public abstract class HtmlSerializer extends Serializer {
 
+    // escaping of the subclass overriding escapeText() is kept, instead of escaping straight into the writer
+    private final boolean isEscapeTextOverridden =
+            Utils.isOverridden(getClass(), HtmlSerializer.class, "escapeText", String.class);
+
 	protected HtmlSerializer(CleanerProperties props) {
 		super(props);
     }
@@ -59,95 +63,42 @@ public abstract class HtmlSerializer extends Serializer {
         return isScriptOrStyle(tagNode);
     }
 
+    /**
+     * Escapes text and attribute values. Subclasses may override it to change the escaping -
+     * serializer then passes all the content through it, instead of escaping it directly into
+     * the writer.
+     * @param s
+     * @return Escaped text
+     */
     protected String escapeText(String s) {
-        boolean recognizeUnicodeChars = props.isRecognizeUnicodeChars();
-        boolean translateSpecialEntities = props.isTranslateSpecialEntities();
-
-        if (s != null) {
-    		int len = s.length();
-    		StringBuilder result = new StringBuilder(len);
-
-    		for (int i = 0; i < len; i++) {
-    			char ch = s.charAt(i);
-
-    			if (ch == '&') {
-    				if (i < len-2 && s.charAt(i+1) == '#') {
-                        boolean isHex = Character.toLowerCase(s.charAt(i+2)) == 'x';
-                        int charIndex = i + (isHex ? 3 : 2);
-                        int radix = isHex ? 16 : 10;
-                        String unicode = "";
-                        while (charIndex < len) {
-                            char currCh = s.charAt(charIndex);
-                            if (currCh == ';') {
-                                break;
-                            } else if (Utils.isValidInt(unicode + currCh, radix)) {
-                                unicode += currCh;
-                                charIndex++;
-                            } else {
-                                charIndex--;
-                                break;
-                            }
-                        }
-
-    					if (Utils.isValidInt(unicode, radix)) {
-                            char unicodeChar = (char)Integer.parseInt(unicode, radix);
-                            if ( !Utils.isValidXmlChar(unicodeChar) ) {
-                                i = charIndex;
-                            } else if ( !Utils.isReservedXmlChar(unicodeChar) ) {
-                                result.append( recognizeUnicodeChars ? String.valueOf(unicodeChar) : "&#" + unicode + ";" );
-                                i = charIndex;
-                            } else {
-                                i = charIndex;
-                                result.append("&#" + unicode + ";");
-                            }
-    					} else {
-    						result.append(props.transResCharsToNCR ? "&#" + (int)'&' + ";" : "&");
-    					}
-    				} else {
-                        // get minimal following sequence required to recognize some special entitiy
-                        String seq = s.substring(i, i + Math.min(SpecialEntity.getMaxEntityLength() + 2, len - i));
-                        int semiIndex = seq.indexOf(';');
-                        if (semiIndex > 0) {
-                            String entityKey = seq.substring(1, semiIndex);
-                            SpecialEntity entity = SpecialEntity.getEntity(entityKey);
-                            if (entity != null) {
-                                if (translateSpecialEntities) {
-                                    result.append(props.isTransSpecialEntitiesToNCR() ? entity.getDecimalNCR() : entity.getCharacter());
-                                } else {
-                                    result.append(entity.getEscapedValue());
-                                }
-
-                                i += entityKey.length() + 1;
-                                continue;
-                            }
-                        }
-
-                        String sub = s.substring(i);
-                        boolean isReservedSeq = false;
-                        for (Map.Entry<Character, String> entry: Utils.RESERVED_XML_CHARS.entrySet()) {
-                            seq = entry.getValue();
-                            if ( sub.startsWith(seq) ) {
-                                result.append( props.transResCharsToNCR ? "&#" + (int)entry.getKey() + ";" : seq );
-                                i += seq.length() - 1;
-                                isReservedSeq = true;
-                                break;
-                            }
-                        }
-                        if (!isReservedSeq) {
-                            result.append( props.transResCharsToNCR ? "&#" + (int)'&' + ";" : "&" );
-                        }
-    				}
-    			} else if (Utils.isReservedXmlChar(ch)) {
-    				result.append( props.transResCharsToNCR ? "&#" + (int)ch + ";" : ch );
-    			} else {
-    				result.append(ch);
-    			}
-    		}
-
-    		return result.toString();
-    	}
-
-    	return null;
+        if ( s == null || !Utils.isEscapingNeeded(s, 0, s.length()) ) {
+            return s;
+        }
+
+        StringBuilder result = new StringBuilder(s.length() + 16);
+        try {
+            Utils.escape(s, 0, s.length(), props, false, true, result);
+        } catch (IOException e) {
+            // should never happen because writing to StringBuilder
+            throw new HtmlCleanerException(e);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Writes escaped text directly to the writer, following the same rules as escapeText().
+     * @param s
+     * @param writer
+     * @throws IOException
+     */
+    protected void writeEscapedText(String s, Writer writer) throws IOException {
+        if (isEscapeTextOverridden) {
+            writer.write( escapeText(s) );
+        } else if ( Utils.isEscapingNeeded(s, 0, s.length()) ) {
+            Utils.escape(s, 0, s.length(), props, false, true, writer);
+        } else {
+            writer.write(s);
+        }
     }
 
     protected void serializeOpenTag(TagNode tagNode, Writer writer, boolean newLine) throws IOException {
@@ -169,7 +120,11 @@ public abstract class HtmlSerializer extends Serializer {
             if (!nsAware && Utils.getXmlNSPrefix(attName) != null ) {
                 attName = Utils.getXmlName(attName);
             }
-            writer.write(" " + attName + "=\"" + escapeText(entry.getValue()) + "\"");
+            writer.write(' ');
+            writer.write(attName);
+            writer.write("=\"");
+            writeEscapedText(entry.getValue(), writer);
+            writer.write('"');
         }
 
         if (nsAware) {
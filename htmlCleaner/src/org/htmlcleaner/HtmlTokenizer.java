@@ -51,12 +51,27 @@ abstract public class HtmlTokenizer {
 	
 	private final static int WORKING_BUFFER_SIZE = 1024;
 
+    // tags between which whitespace-only text is omitted when text nodes are compacted
+    private final static Set<String> BLOCK_TAGS = new HashSet<String>( Arrays.asList(new String[] {
+        "html", "head", "body", "title", "meta", "link", "base", "div", "p", "h1", "h2", "h3", "h4", "h5", "h6",
+        "table", "caption", "colgroup", "col", "thead", "tbody", "tfoot", "tr", "td", "th", "ul", "ol", "li",
+        "dl", "dt", "dd", "blockquote", "center", "form", "fieldset", "legend", "hr", "address", "dir", "menu"
+    }) );
+
+    // short texts are shared through this table, slots are overwritten on collisions - concurrent
+    // cleanings may only miss a shared instance, since strings are immutable
+    private final static int SHARED_TEXT_MAX_LENGTH = 16;
+    private final static String[] SHARED_TEXTS = new String[1024];
+
     private BufferedReader _reader;
     private char[] _working = new char[WORKING_BUFFER_SIZE];
     
     private transient int _pos = 0;
     private transient int _len = -1;
 
+    // number of characters read from the reader so far, including those before resume position
+    private transient int _totalRead = 0;
+
     private transient char _saved[] = new char[512];
     private transient int _savedLen = 0;
 
@@ -67,6 +82,13 @@ abstract public class HtmlTokenizer {
     private boolean _asExpected = true;
 
     private boolean _isScriptContext = false;
+    private boolean _isLateForDoctype = false;
+    private boolean _isScriptEmpty = true;
+
+    // checkpoint to be captured, with hash of the content consumed so far
+    private CleanCheckpoint _checkpoint = null;
+    private long _prefixHash;
+    private int _hashedTo;
 
     private CleanerProperties props;
 
@@ -82,8 +104,31 @@ abstract public class HtmlTokenizer {
     private CleanerTransformations transformations;
     private ITagInfoProvider tagInfoProvider;
 
+    // lazy tag name -> class names that make it lazy (empty string stands for any class)
+    private Map<String, Set<String>> lazyTags = null;
+
     private StringBuilder commonStr = new StringBuilder();
 
+    private boolean isCompactTextNodes;
+    private CleanStats stats = null;
+
+    // resource budget, zero meaning no limit
+    private int maxInputChars;
+    private int maxNodeCount;
+    private int maxTextChars;
+    private transient int _nodeCount = 0;
+    private transient int _textChars = 0;
+    private transient int _truncatedAt = -1;
+    // set when a token was cut because of the text budget
+    private transient boolean _isTextBudgetUsed = false;
+
+    // whitespace after a block tag, kept until it is known whether a block tag follows
+    private transient String _pendingWhitespace = null;
+    private transient boolean _isPendingShared = false;
+    private transient boolean _isLastTokenBlock = false;
+    // number of open pre and textarea tags, where whitespace is always kept
+    private transient int _preformattedDepth = 0;
+
     /**
      * Constructor - cretes instance of the parser with specified content.
      * 
@@ -105,21 +150,192 @@ abstract public class HtmlTokenizer {
         this.isOmitComments = props.isOmitComments();
         this.isAllowMultiWordAttributes = props.isAllowMultiWordAttributes();
         this.isAllowHtmlInsideAttributes = props.isAllowHtmlInsideAttributes();
+        this.isCompactTextNodes = props.isCompactTextNodes();
+        this.maxInputChars = props.getMaxInputChars();
+        this.maxNodeCount = props.getMaxNodeCount();
+        this.maxTextChars = props.getMaxTextChars();
         this.transformations = transformations;
         this.tagInfoProvider = tagInfoProvider;
+        setLazyTags( props.getLazyTags() );
+    }
+
+    private void setLazyTags(String lazyTagsSpec) {
+        if (lazyTagsSpec != null) {
+            StringTokenizer tokenizer = new StringTokenizer(lazyTagsSpec, ",");
+            while ( tokenizer.hasMoreTokens() ) {
+                String spec = tokenizer.nextToken().trim();
+                int dotIndex = spec.indexOf('.');
+                String tagName = (dotIndex >= 0 ? spec.substring(0, dotIndex) : spec).trim().toLowerCase();
+                String className = dotIndex >= 0 ? spec.substring(dotIndex + 1).trim() : "";
+                if (tagName.length() > 0) {
+                    if (lazyTags == null) {
+                        lazyTags = new HashMap<String, Set<String>>();
+                    }
+                    Set<String> classes = lazyTags.get(tagName);
+                    if (classes == null) {
+                        classes = new HashSet<String>();
+                        lazyTags.put(tagName, classes);
+                    }
+                    classes.add(className);
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns off lazy containers for this tokenizer, so that all the content is cleaned at once.
+     */
+    void disableLazyTags() {
+        lazyTags = null;
+    }
+
+    /**
+     * Sets statistics to be updated while tokenizing.
+     * @param stats
+     */
+    void setStats(CleanStats stats) {
+        this.stats = stats;
     }
 
     private void addToken(BaseToken token) {
+        if (_pendingWhitespace != null) {
+            String whitespace = _pendingWhitespace;
+            _pendingWhitespace = null;
+            if ( isBlockToken(token) ) {
+                if (stats != null) {
+                    stats.addOmittedWhitespace( whitespace.length() );
+                }
+            } else {
+                if (_isPendingShared && stats != null) {
+                    stats.addSharedText( whitespace.length() );
+                }
+                appendToken( new ContentNode(whitespace) );
+            }
+        }
+        appendToken(token);
+    }
+
+    private void appendToken(BaseToken token) {
         _tokenList.add(token);
+        if (token instanceof ContentNode) {
+            _nodeCount++;
+            _textChars += ((ContentNode) token).getCharacters().length();
+        } else if (token instanceof CommentNode) {
+            _nodeCount++;
+            _textChars += ((CommentNode) token).getCharacters().length();
+        } else if (token instanceof TagNode) {
+            _nodeCount++;
+        }
+        if (stats != null) {
+            stats.addToken( token, _tokenList.size() );
+        }
+        if (isCompactTextNodes) {
+            _isLastTokenBlock = isBlockToken(token);
+            if (token instanceof TagToken) {
+                String tagName = ((TagToken) token).getName();
+                if ( "pre".equals(tagName) || "textarea".equals(tagName) ) {
+                    if (token instanceof TagNode) {
+                        _preformattedDepth++;
+                    } else if (_preformattedDepth > 0) {
+                        _preformattedDepth--;
+                    }
+                }
+            }
+        }
         makeTree(_tokenList);
     }
 
+    private boolean isBlockToken(BaseToken token) {
+        return (token instanceof TagToken) && BLOCK_TAGS.contains( ((TagToken) token).getName() );
+    }
+
+    /**
+     * Budget is checked between tokens. Input is also cut when it is read, and text budget is checked
+     * while reading text, comments and lazy content, so that a single token cannot exceed them.
+     * @return Whether input, node or text budget is used up, so that no more tokens should be added.
+     */
+    private boolean isBudgetExceeded() {
+        return _isTextBudgetUsed ||
+               (maxInputChars > 0 && getPosition() >= maxInputChars) ||
+               (maxNodeCount > 0 && _nodeCount >= maxNodeCount) ||
+               (maxTextChars > 0 && _textChars >= maxTextChars);
+    }
+
+    /**
+     * Checks text budget for the token being read, and marks the content as truncated at the current
+     * position if it is used up.
+     * @param tokenChars Number of text characters of the token read so far
+     * @return Whether the token must end at the current position.
+     */
+    private boolean isTextBudgetExceeded(int tokenChars) {
+        if ( maxTextChars > 0 && _textChars + tokenChars >= maxTextChars ) {
+            _isTextBudgetUsed = true;
+            truncate( getPosition() );
+            return true;
+        }
+        return false;
+    }
+
+    private void truncate(int position) {
+        if (_truncatedAt < 0) {
+            _truncatedAt = position;
+            if (stats != null) {
+                stats.setTruncated(position);
+            }
+        }
+    }
+
     abstract void makeTree(List<BaseToken> tokenList);
 
     abstract TagNode createTagNode(String name);
 
+    abstract void makeLazy(TagNode tagNode, String rawContent);
+
+    abstract void makeCheckpoint(CleanCheckpoint checkpoint);
+
+    /**
+     * Sets checkpoint whose state is to be captured during parsing.
+     * @param checkpoint
+     */
+    void setCheckpoint(CleanCheckpoint checkpoint) {
+        this._checkpoint = checkpoint;
+        this._prefixHash = CleanCheckpoint.initialHash();
+        this._hashedTo = 0;
+    }
+
+    /**
+     * @return Position in the whole content of the character at current runtime position.
+     */
+    int getPosition() {
+        return _totalRead - (_len >= 0 ? _len : WORKING_BUFFER_SIZE) + _pos;
+    }
+
+    /**
+     * Includes characters of the working buffer up to the specified index in the prefix hash. 
+     */
+    private void updatePrefixHash(int toIndex) {
+        int bufferStart = getPosition() - _pos;
+        int fromIndex = Math.max(_hashedTo - bufferStart, 0);
+        toIndex = Math.min(toIndex, _len >= 0 ? _len : WORKING_BUFFER_SIZE);
+        if (fromIndex < toIndex) {
+            _prefixHash = CleanCheckpoint.hash(_prefixHash, _working, fromIndex, toIndex);
+            _hashedTo = bufferStart + toIndex;
+        }
+    }
+
+    private void saveCheckpoint() {
+        updatePrefixHash(_pos + 1);
+        _checkpoint.setTokenizerState(getPosition(), _prefixHash, _isScriptContext, _isLateForDoctype, _isScriptEmpty, _docType);
+        _checkpoint.setTextState(_pendingWhitespace, _isLastTokenBlock, _preformattedDepth);
+        makeCheckpoint(_checkpoint);
+        _checkpoint = null;
+    }
+
     private void readIfNeeded(int neededChars) throws IOException {
         if (_len == -1 && _pos + neededChars >= WORKING_BUFFER_SIZE) {
+            if (_checkpoint != null) {
+                updatePrefixHash(_pos);
+            }
             int numToCopy = WORKING_BUFFER_SIZE - _pos;
             System.arraycopy(_working, _pos, _working, 0, numToCopy);
     		_pos = 0;
@@ -137,6 +353,15 @@ abstract public class HtmlTokenizer {
                 }
             } while (charsRead >= 0 && expected > 0);
 
+            // characters over the input budget are not read, so that no token can grow past it
+            if ( maxInputChars > 0 && _totalRead + size > maxInputChars ) {
+                size = maxInputChars - _totalRead;
+                expected = WORKING_BUFFER_SIZE - numToCopy - size;
+                truncate(maxInputChars);
+            }
+
+            _totalRead += size;
+
             if (expected > 0) {
     			_len = size + numToCopy;
             }
@@ -296,11 +521,20 @@ abstract public class HtmlTokenizer {
      * @return true is may be identifier part, false otherwise.
      */
     private boolean isIdentifierChar() {
-    	if (_len >= 0 && _pos >= _len) {
+        return isIdentifierChar(_pos);
+    }
+
+    /**
+     * Checks if character at specified position can be identifier part.
+     * @param position
+     * @return true is may be identifier part, false otherwise.
+     */
+    private boolean isIdentifierChar(int position) {
+    	if (_len >= 0 && position >= _len) {
             return false;
         }
 
-        char ch = _working[_pos];
+        char ch = _working[position];
         return Character.isUnicodeIdentifierStart(ch) || Character.isDigit(ch) || Utils.isIdentifierHelperChar(ch);
     }
 
@@ -373,7 +607,11 @@ abstract public class HtmlTokenizer {
 
     private boolean addSavedAsContent() {
         if (_savedLen > 0) {
-            addToken(new ContentNode(_saved, _savedLen));
+            if (isCompactTextNodes) {
+                addCompactContent();
+            } else {
+                addToken(new ContentNode(_saved, _savedLen));
+            }
             _savedLen = 0;
             return true;
         }
@@ -381,24 +619,142 @@ abstract public class HtmlTokenizer {
         return false;
     }
 
+    /**
+     * Adds saved text, sharing its string if it is short and the same text has been seen before.
+     * Whitespace after a block tag is held back until the next token.
+     */
+    private void addCompactContent() {
+        String text = null;
+        int slot = 0;
+        if (_savedLen <= SHARED_TEXT_MAX_LENGTH) {
+            int hash = 0;
+            for (int i = 0; i < _savedLen; i++) {
+                hash = 31 * hash + _saved[i];
+            }
+            slot = (hash ^ (hash >>> 10)) & (SHARED_TEXTS.length - 1);
+            String sharedText = SHARED_TEXTS[slot];
+            if ( sharedText != null && isSaved(sharedText) ) {
+                text = sharedText;
+            }
+        }
+        boolean isShared = text != null;
+        if (!isShared) {
+            text = new String(_saved, 0, _savedLen);
+            if (_savedLen <= SHARED_TEXT_MAX_LENGTH) {
+                SHARED_TEXTS[slot] = text;
+            }
+        }
+
+        if ( _isLastTokenBlock && _pendingWhitespace == null && _preformattedDepth == 0 && !_isScriptContext && isSavedWhitespace() ) {
+            _pendingWhitespace = text;
+            _isPendingShared = isShared;
+        } else {
+            if (isShared && stats != null) {
+                stats.addSharedText(_savedLen);
+            }
+            addToken( new ContentNode(text) );
+        }
+    }
+
+    private boolean isSaved(String text) {
+        if (text.length() != _savedLen) {
+            return false;
+        }
+        for (int i = 0; i < _savedLen; i++) {
+            if (text.charAt(i) != _saved[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isSavedWhitespace() {
+        for (int i = 0; i < _savedLen; i++) {
+            char ch = _saved[i];
+            if (ch != ' ' && ch != '\n' && ch != '\r' && ch != '\t' && ch != '\f') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Starts parsing HTML.
      * @throws IOException
      */
     void start() throws IOException {
+        reset();
+        tokenize();
+    }
+
+    /**
+     * Starts parsing HTML fragment, placed after the specified start tokens which are already open
+     * in the tree builder.
+     * @param contextTokens Open start tokens of the fragment's context
+     * @param isScriptContext Whether the fragment is content of the script tag
+     * @throws IOException
+     */
+    void startFragment(List<BaseToken> contextTokens, boolean isScriptContext) throws IOException {
+        reset();
+        _tokenList.addAll(contextTokens);
+        _isScriptContext = isScriptContext;
+        // doctype is never part of the fragment
+        _isLateForDoctype = true;
+        tokenize();
+    }
+
+    private void reset() throws IOException {
     	// initialize runtime values
         _currentTagToken = null;
         _tokenList.clear();
         _asExpected = true;
         _isScriptContext = false;
+        _isLateForDoctype = false;
+        _isScriptEmpty = true;
+        _pendingWhitespace = null;
+        _isLastTokenBlock = false;
+        _preformattedDepth = 0;
+        _nodeCount = 0;
+        _textChars = 0;
+        _truncatedAt = -1;
+        _isTextBudgetUsed = false;
 
-        boolean isLateForDoctype = false;
+        this._pos = WORKING_BUFFER_SIZE;
+        readIfNeeded(0);
+    }
 
+    /**
+     * Continues parsing from the state saved in the specified checkpoint. Reader must be positioned
+     * at the checkpoint's position and the list of tokens must be the copy of the saved one.
+     * @param checkpoint
+     * @param tokenList
+     * @throws IOException
+     */
+    void resume(CleanCheckpoint checkpoint, List<BaseToken> tokenList) throws IOException {
+        _currentTagToken = null;
+        _tokenList = tokenList;
+        _asExpected = true;
+        _isScriptContext = checkpoint.isScriptContext();
+        _isLateForDoctype = checkpoint.isLateForDoctype();
+        _isScriptEmpty = checkpoint.isScriptEmpty();
+        _docType = checkpoint.getDocType();
+        _pendingWhitespace = checkpoint.getPendingWhitespace();
+        _isPendingShared = false;
+        _isLastTokenBlock = checkpoint.isLastTokenBlock();
+        _preformattedDepth = checkpoint.getPreformattedDepth();
+        _nodeCount = 0;
+        _textChars = 0;
+        _truncatedAt = -1;
+        _isTextBudgetUsed = false;
+
+        this._totalRead = checkpoint.getPosition();
         this._pos = WORKING_BUFFER_SIZE;
         readIfNeeded(0);
 
-        boolean isScriptEmpty = true;
+        tokenize();
+    }
 
+    private void tokenize() throws IOException {
         while ( !isAllRead() ) {
             // resets all the runtime values
             _savedLen = 0;
@@ -408,41 +764,50 @@ abstract public class HtmlTokenizer {
             // this is enough for making decision
             readIfNeeded(10);
 
+            if ( isBudgetExceeded() ) {
+                truncate( getPosition() );
+                break;
+            }
+
+            if ( _checkpoint != null && getPosition() >= _checkpoint.getOffset() ) {
+                saveCheckpoint();
+            }
+
             if (_isScriptContext) {
                 if ( startsWith("</script") && (isWhitespace(_pos + 8) || isChar(_pos + 8, '>')) ) {
                     tagEnd();
-                } else if ( isScriptEmpty && startsWithSimple("<!--") ) {
+                } else if ( _isScriptEmpty && startsWithSimple("<!--") ) {
                     comment();
                 } else {
                     boolean isTokenAdded = content();
-                    if (isScriptEmpty && isTokenAdded) {
+                    if (_isScriptEmpty && isTokenAdded) {
                         final BaseToken lastToken = _tokenList.get(_tokenList.size() - 1);
                         if (lastToken != null) {
                             final String lastTokenAsString = lastToken.toString();
                             if (lastTokenAsString != null && lastTokenAsString.trim().length() > 0) {
-                                isScriptEmpty = false;
+                                _isScriptEmpty = false;
                             }
                         }
                     }
                 }
                 if (!_isScriptContext) {
-                    isScriptEmpty = true;
+                    _isScriptEmpty = true;
                 }
             } else {
                 if ( startsWith("<!doctype") ) {
-                	if ( !isLateForDoctype ) {
+                	if ( !_isLateForDoctype ) {
                 		doctype();
-                		isLateForDoctype = true;
+                		_isLateForDoctype = true;
                 	} else {
                 		ignoreUntil('<');
                 	}
                 } else if ( startsWithSimple("</") && isIdentifierStartChar(_pos + 2) ) {
-                	isLateForDoctype = true;
+                	_isLateForDoctype = true;
                     tagEnd();
                 } else if ( startsWithSimple("<!--") ) {
                     comment();
                 } else if ( startsWithSimple("<") && isIdentifierStartChar(_pos + 1) ) {
-                	isLateForDoctype = true;
+                	_isLateForDoctype = true;
                     tagStart();
                 } else if ( props.isIgnoreQuestAndExclam() && (startsWithSimple("<!") || startsWithSimple("<?")) ) {
                     ignoreUntil('>');
@@ -455,6 +820,14 @@ abstract public class HtmlTokenizer {
             }
         }
 
+        // whitespace at the end is followed only by the implicit end tags
+        if (_pendingWhitespace != null) {
+            if (stats != null) {
+                stats.addOmittedWhitespace( _pendingWhitespace.length() );
+            }
+            _pendingWhitespace = null;
+        }
+
         _reader.close();
     }
 
@@ -484,12 +857,9 @@ abstract public class HtmlTokenizer {
 
         String tagName = identifier();
 
-        TagTransformation tagTransformation = null;
-        if (transformations != null && transformations.hasTransformationForTag(tagName)) {
-            tagTransformation = transformations.getTransformation(tagName);
-            if (tagTransformation != null) {
-                tagName = tagTransformation.getDestTag();
-            }
+        TagTransformation tagTransformation = transformations != null ? transformations.getTransformation(tagName) : null;
+        if (tagTransformation != null) {
+            tagName = tagTransformation.getDestTag();
         }
 
         if (tagName != null) {
@@ -519,6 +889,8 @@ abstract public class HtmlTokenizer {
             	go();
                 if ( "script".equalsIgnoreCase(tagName) ) {
                     _isScriptContext = true;
+                } else if ( tagName != null && isLazyTag(tagNode) ) {
+                    lazyContent(tagNode);
                 }
             } else if ( startsWithSimple("/>") ) {
             	go(2);
@@ -534,6 +906,119 @@ abstract public class HtmlTokenizer {
     }
 
 
+    /**
+     * Checks if specified open tag is one of the containers defined by lazyTags property.
+     * @param tagNode
+     */
+    private boolean isLazyTag(TagNode tagNode) {
+        if (lazyTags == null) {
+            return false;
+        }
+        Set<String> classes = lazyTags.get( tagNode.getName() );
+        if (classes == null) {
+            return false;
+        } else if ( classes.contains("") ) {
+            return true;
+        }
+        String classAtt = tagNode.getAttributeByName("class");
+        if (classAtt != null) {
+            StringTokenizer tokenizer = new StringTokenizer(classAtt);
+            while ( tokenizer.hasMoreTokens() ) {
+                if ( classes.contains(tokenizer.nextToken()) ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects raw content of the lazy container without tokenizing it. It expects
+     * that current position is right after the container's start tag and stops at the
+     * tag which closes the container - either its end tag, or a tag that implicitly closes
+     * it (like another TD or end of the row for table cells). Nested tables and nested tags
+     * of the same name are skipped. Closing tag is afterwards parsed as usual.
+     * @param tagNode
+     * @throws IOException
+     */
+    private void lazyContent(TagNode tagNode) throws IOException {
+        String tagName = tagNode.getName();
+        TagInfo tagInfo = tagInfoProvider.getTagInfo(tagName);
+        String scopeTag = tagInfo != null ? tagInfo.getFatalTag() : null;
+        String requiredParent = tagInfo != null ? tagInfo.getRequiredParent() : null;
+        StringBuilder raw = new StringBuilder();
+        int depth = 0;
+
+        while ( !isAllRead() && !isTextBudgetExceeded( raw.length() ) ) {
+            if ( isCharSimple('<') ) {
+                if ( startsWithSimple("<!--") ) {
+                    rawUntil("-->", raw);
+                    continue;
+                }
+
+                boolean isEnd = startsWithSimple("</");
+                String name = rawTagName(isEnd ? 2 : 1);
+                if (name != null) {
+                    if (isEnd) {
+                        if ( name.equals(scopeTag != null ? scopeTag : tagName) && depth > 0 ) {
+                            depth--;
+                        } else if ( depth == 0 && (name.equals(tagName) || name.equals(scopeTag) || name.equals(requiredParent)) ) {
+                            break;
+                        }
+                    } else {
+                        TagInfo nameInfo = tagInfoProvider.getTagInfo(name);
+                        if ( name.equals(scopeTag != null ? scopeTag : tagName) ) {
+                            depth++;
+                        } else if ( depth == 0 && nameInfo != null && nameInfo.isMustCloseTag(tagInfo) ) {
+                            break;
+                        } else if ( "script".equals(name) ) {
+                            rawUntil("</script", raw);
+                            continue;
+                        }
+                    }
+                }
+            }
+            raw.append( _working[_pos] );
+            go();
+        }
+
+        _textChars += raw.length();
+        makeLazy(tagNode, raw.toString());
+    }
+
+    /**
+     * @param offset Offset from the current position where tag name starts
+     * @return Lower-case name of the tag at current position, or null if there is no tag name.
+     */
+    private String rawTagName(int offset) throws IOException {
+        readIfNeeded(offset + 32);
+        int position = _pos + offset;
+        if ( !isIdentifierStartChar(position) ) {
+            return null;
+        }
+        commonStr.delete(0, commonStr.length());
+        while ( position < WORKING_BUFFER_SIZE && isIdentifierChar(position) ) {
+            commonStr.append( Character.toLowerCase(_working[position]) );
+            position++;
+        }
+        return commonStr.toString();
+    }
+
+    /**
+     * Appends raw characters to the specified builder until specified value is reached.
+     * If the value is the end of a comment, it is appended as well.
+     */
+    private void rawUntil(String value, StringBuilder raw) throws IOException {
+        while ( !isAllRead() && !startsWith(value) && !isTextBudgetExceeded( raw.length() ) ) {
+            raw.append( _working[_pos] );
+            go();
+        }
+        if ( "-->".equals(value) && startsWithSimple(value) ) {
+            raw.append(value);
+            go(3);
+        }
+    }
+
     /**
      * Parses end of the tag.
      * It expects that current position is at the "<" after which
@@ -549,11 +1034,9 @@ abstract public class HtmlTokenizer {
         }
 
         String tagName = identifier();
-        if (transformations != null && transformations.hasTransformationForTag(tagName)) {
-            TagTransformation tagTransformation = transformations.getTransformation(tagName);
-            if (tagTransformation != null) {
-                tagName = tagTransformation.getDestTag();
-            }
+        TagTransformation tagTransformation = transformations != null ? transformations.getTransformation(tagName) : null;
+        if (tagTransformation != null) {
+            tagName = tagTransformation.getDestTag();
         }
 
         if (tagName != null) {
@@ -734,7 +1217,7 @@ abstract public class HtmlTokenizer {
     }
 
     private boolean content() throws IOException {
-        while ( !isAllRead() ) {
+        while ( !isAllRead() && !isTextBudgetExceeded(_savedLen) ) {
             if (isValidXmlCharSafe()) {
                 saveCurrentSafe();
             }
@@ -759,7 +1242,7 @@ abstract public class HtmlTokenizer {
 
     private void comment() throws IOException {
     	go(4);
-        while ( !isAllRead() && !startsWithSimple("-->") ) {
+        while ( !isAllRead() && !startsWithSimple("-->") && !isTextBudgetExceeded(_savedLen) ) {
             if (isValidXmlCharSafe()) {
                 saveCurrentSafe();
             }
@@ -809,5 +1292,12 @@ abstract public class HtmlTokenizer {
     public DoctypeToken getDocType() {
         return _docType;
     }
+
+    /**
+     * @return Position in the input where reading stopped because of a budget, or -1 if all was read.
+     */
+    int getTruncationOffset() {
+        return _truncatedAt;
+    }
     
 }
\ No newline at end of file
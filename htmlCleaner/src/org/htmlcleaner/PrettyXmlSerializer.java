@@ -43,13 +43,25 @@ import java.util.*;
 
 /**
  * <p>Pretty XML serializer - creates resulting XML with indenting lines.</p>
+ * <p>Serializer keeps no state between calls except immutable table of indentations,
+ * so single instance may be used from many threads at the same time.</p>
  */
 public class PrettyXmlSerializer extends XmlSerializer {
 
 	private static final String DEFAULT_INDENTATION_STRING = "\t";
 
+    // number of indentation levels created in advance
+    private static final int INITIAL_INDENTS = 16;
+
+    // kinds of text written line by line
+    private static final int TEXT_ESCAPED = 0;
+    private static final int TEXT_CDATA = 1;
+    private static final int TEXT_COMMENT = 2;
+
     private String indentString = DEFAULT_INDENTATION_STRING;
-    private List<String> indents = new ArrayList<String>();
+
+    // never modified once published, deeper levels are added by replacing the whole table
+    private volatile String[] indents;
 
 	public PrettyXmlSerializer(CleanerProperties props) {
 		this(props, DEFAULT_INDENTATION_STRING);
@@ -58,81 +70,195 @@ public class PrettyXmlSerializer extends XmlSerializer {
 	public PrettyXmlSerializer(CleanerProperties props, String indentString) {
 		super(props);
         this.indentString = indentString;
+        this.indents = createIndents(new String[0], INITIAL_INDENTS);
 	}
 
 	protected void serialize(TagNode tagNode, Writer writer) throws IOException {
 		serializePrettyXml(tagNode, writer, 0);
 	}
 
+    /**
+     * @return New table of indentations of specified size, starting with the existing ones.
+     */
+    private String[] createIndents(String[] existing, int size) {
+        String[] result = new String[size];
+        System.arraycopy(existing, 0, result, 0, existing.length);
+        for (int i = existing.length; i < size; i++) {
+            result[i] = i == 0 ? "" : result[i - 1] + indentString;
+        }
+        return result;
+    }
+
 	/**
 	 * @param level
 	 * @return Appropriate indentation for the specified depth.
 	 */
-    private synchronized String getIndent(int level) {
-        int size = indents.size();
-        if (size <= level) {
-            String prevIndent = size == 0 ? null : indents.get(size - 1);
-            for (int i = size; i <= level; i++) {
-                String currIndent = prevIndent == null ? "" : prevIndent + indentString;
-                indents.add(currIndent);
-                prevIndent = currIndent;
-            }
+    private String getIndent(int level) {
+        String[] table = indents;
+        if (level >= table.length) {
+            // concurrent callers may both grow the table, but they create the same content
+            table = createIndents(table, Math.max(level + 1, table.length * 2));
+            indents = table;
         }
-
-        return indents.get(level);
+        return table[level];
     }
 
-    private String getIndentedText(String content, int level) {
+    /**
+     * Writes every non-empty line of the text trimmed and indented, each followed by new line.
+     * Escaped and CDATA texts are escaped as a whole into the buffer first, since escaping may
+     * drop or rewrite characters, so lines are trimmed only in the final result.
+     */
+    private void writeIndentedText(String text, int kind, int level, StringBuilder buffer, Writer writer) throws IOException {
+        CharSequence content = text;
+        if (kind == TEXT_ESCAPED) {
+            buffer.setLength(0);
+            appendEscapedXml(text, 0, text.length(), buffer);
+            content = buffer;
+        } else if (kind == TEXT_CDATA) {
+            buffer.setLength(0);
+            appendCDataContent(text, buffer);
+            content = buffer;
+        }
+
         String indent = getIndent(level);
-        StringBuilder result = new StringBuilder( content.length() );
-        StringTokenizer tokenizer = new StringTokenizer(content, "\n\r");
+        int len = content.length();
+        int index = 0;
 
-        while (tokenizer.hasMoreTokens()) {
-            String line = tokenizer.nextToken().trim();
-            if (!"".equals(line)) {
-                result.append(indent).append(line).append("\n");
+        while (index < len) {
+            int lineEnd = index;
+            while ( lineEnd < len && content.charAt(lineEnd) != '\n' && content.charAt(lineEnd) != '\r' ) {
+                lineEnd++;
             }
-        }
 
-        return result.toString();
+            // trims the line the same way as String.trim()
+            int start = index;
+            int end = lineEnd;
+            while ( start < end && content.charAt(start) <= ' ' ) {
+                start++;
+            }
+            while ( end > start && content.charAt(end - 1) <= ' ' ) {
+                end--;
+            }
+
+            if (start < end) {
+                writer.write(indent);
+                writer.append(content, start, end);
+                writer.write("\n");
+            }
+
+            index = lineEnd + 1;
+        }
     }
 
-    private String getSingleLineOfChildren(List children) {
-        StringBuilder result = new StringBuilder();
-        Iterator childrenIt = children.iterator();
-        boolean isFirst = true;
+    /**
+     * Appends content of CDATA section, escaping "]]>" sequences inside it.
+     */
+    private void appendCDataContent(String content, StringBuilder buffer) {
+        int start = 0;
+        int index = content.indexOf("]]>");
+        while (index >= 0) {
+            buffer.append(content, start, index).append("]]&gt;");
+            start = index + 3;
+            index = content.indexOf("]]>", start);
+        }
+        buffer.append(content, start, content.length());
+    }
 
-        while (childrenIt.hasNext()) {
-            Object child = childrenIt.next();
+    private void writeText(String content, int start, int end, int kind, Writer writer) throws IOException {
+        if (kind == TEXT_ESCAPED) {
+            appendEscapedXml(content, start, end, writer);
+        } else if (kind == TEXT_CDATA) {
+            writeCDataContent(content, start, end, writer);
+        } else {
+            writer.write(content, start, end - start);
+        }
+    }
 
+    /**
+     * @return Whether children consist of text only, which fits in single line once the
+     * first one is trimmed from left and the last one from right.
+     */
+    private boolean isSingleLineOfChildren(List children) {
+        int size = children.size();
+        for (int i = 0; i < size; i++) {
+            Object child = children.get(i);
             if ( !(child instanceof ContentNode) ) {
-                return null;
-            } else {
-                String content = child.toString();
+                return false;
+            }
 
-                // if first item trims it from left
-                if (isFirst) {
-                	content = Utils.ltrim(content);
+            CharSequence content = ((ContentNode) child).getCharacters();
+            int start = i == 0 ? getLeftTrimIndex(content) : 0;
+            int end = i == size - 1 ? getRightTrimIndex(content) : content.length();
+            for (int j = start; j < end; j++) {
+                char ch = content.charAt(j);
+                if (ch == '\n' || ch == '\r') {
+                    return false;
                 }
+            }
+        }
 
-                // if last item trims it from right
-                if (!childrenIt.hasNext()) {
-                	content = Utils.rtrim(content);
-                }
+        return true;
+    }
 
-                if ( content.indexOf("\n") >= 0 || content.indexOf("\r") >= 0 ) {
-                    return null;
-                }
-                result.append(content);
-            }
+    /**
+     * @return Index of the first non-whitespace character, as used by Utils.ltrim().
+     */
+    private static int getLeftTrimIndex(CharSequence s) {
+        int index = 0;
+        int len = s.length();
+        while ( index < len && Character.isWhitespace(s.charAt(index)) ) {
+            index++;
+        }
+        return index;
+    }
 
-            isFirst = false;
+    /**
+     * @return Index after the last non-whitespace character, as used by Utils.rtrim().
+     */
+    private static int getRightTrimIndex(CharSequence s) {
+        int index = s.length();
+        while ( index > 0 && Character.isWhitespace(s.charAt(index - 1)) ) {
+            index--;
         }
+        return index;
+    }
 
-        return result.toString();
+    /**
+     * Writes text children which fit in single line.
+     */
+    private void writeSingleLine(List children, boolean dontEscape, Writer writer) throws IOException {
+        int size = children.size();
+        if (size == 1) {
+            String content = children.get(0).toString();
+            int start = getLeftTrimIndex(content);
+            int end = getRightTrimIndex(content);
+            if (start < end) {
+                writeText(content, start, end, dontEscape ? TEXT_CDATA : TEXT_ESCAPED, writer);
+            }
+        } else if (size > 1) {
+            // text nodes are joined first, so that escaping sees sequences spanning them
+            StringBuilder result = new StringBuilder();
+            for (int i = 0; i < size; i++) {
+                CharSequence content = ((ContentNode) children.get(i)).getCharacters();
+                int start = i == 0 ? getLeftTrimIndex(content) : 0;
+                int end = i == size - 1 ? getRightTrimIndex(content) : content.length();
+                if (start < end) {
+                    result.append(content, start, end);
+                }
+            }
+            String singleLine = result.toString();
+            writeText(singleLine, 0, singleLine.length(), dontEscape ? TEXT_CDATA : TEXT_ESCAPED, writer);
+        }
     }
 
     protected void serializePrettyXml(TagNode tagNode, Writer writer, int level) throws IOException {
+        serializePrettyXml(tagNode, writer, level, new StringBuilder());
+    }
+
+    /**
+     * @param buffer Buffer for escaping of the text children, reused for the whole tree
+     */
+    private void serializePrettyXml(TagNode tagNode, Writer writer, int level, StringBuilder buffer) throws IOException {
         List tagChildren = tagNode.getChildren();
         boolean isHeadlessNode = Utils.isEmptyString(tagNode.getName());
         String indent = isHeadlessNode ? "" : getIndent(level);
@@ -141,33 +267,28 @@ public class PrettyXmlSerializer extends XmlSerializer {
         serializeOpenTag(tagNode, writer, true);
 
         if ( !isMinimizedTagSyntax(tagNode) ) {
-            String singleLine = getSingleLineOfChildren(tagChildren);
+            boolean isSingleLine = isSingleLineOfChildren(tagChildren);
             boolean dontEscape = dontEscape(tagNode);
-            if (singleLine != null) {
-            	if ( !dontEscape(tagNode) ) {
-            		writer.write( escapeXml(singleLine) );
-            	} else {
-            		writer.write( singleLine.replaceAll("]]>", "]]&gt;") );
-            	}
+            if (isSingleLine) {
+                writeSingleLine(tagChildren, dontEscape, writer);
             } else {
                 if (!isHeadlessNode) {
             	    writer.write("\n");
                 }
+                int childLevel = isHeadlessNode ? level : level + 1;
                 for (Object child: tagChildren) {
                     if (child instanceof TagNode) {
-                        serializePrettyXml( (TagNode)child, writer, isHeadlessNode ? level : level + 1 );
+                        serializePrettyXml( (TagNode)child, writer, childLevel, buffer );
                     } else if (child instanceof ContentNode) {
-                        String content = dontEscape ? child.toString().replaceAll("]]>", "]]&gt;") : escapeXml(child.toString());
-                        writer.write( getIndentedText(content, isHeadlessNode ? level : level + 1) );
+                        writeIndentedText( child.toString(), dontEscape ? TEXT_CDATA : TEXT_ESCAPED, childLevel, buffer, writer );
                     } else if (child instanceof CommentNode) {
                         CommentNode commentNode = (CommentNode) child;
-                        String content = commentNode.getCommentedContent();
-                        writer.write( getIndentedText(content, isHeadlessNode ? level : level + 1) );
+                        writeIndentedText( commentNode.getCommentedContent(), TEXT_COMMENT, childLevel, buffer, writer );
                     }
                 }
             }
 
-            if (singleLine == null) {
+            if (!isSingleLine) {
             	writer.write(indent);
             }
 
@@ -175,4 +296,4 @@ public class PrettyXmlSerializer extends XmlSerializer {
         }
     }
 
-}
\ No newline at end of file
+}
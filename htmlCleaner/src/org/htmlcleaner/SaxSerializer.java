@@ -0,0 +1,307 @@
+package org.htmlcleaner;
+
+import org.xml.sax.*;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+
+import javax.xml.transform.sax.SAXSource;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>SAX serializer - walks the TagNode and fires SAX events to the given handlers,
+ * without building another tree in memory. Names, namespaces and escaping follow
+ * the same rules as in DomSerializer.</p>
+ */
+public class SaxSerializer {
+
+    private static final String NAMESPACES_FEATURE = "http://xml.org/sax/features/namespaces";
+    private static final String NAMESPACE_PREFIXES_FEATURE = "http://xml.org/sax/features/namespace-prefixes";
+    private static final String LEXICAL_HANDLER_PROPERTY = "http://xml.org/sax/properties/lexical-handler";
+
+    protected CleanerProperties props;
+    protected boolean escapeXml = true;
+
+    public SaxSerializer(CleanerProperties props, boolean escapeXml) {
+        this.props = props;
+        this.escapeXml = escapeXml;
+    }
+
+    public SaxSerializer(CleanerProperties props) {
+        this(props, true);
+    }
+
+    /**
+     * Fires events of the whole document made of specified node.
+     * @param rootNode
+     * @param contentHandler
+     * @throws SAXException
+     */
+    public void serialize(TagNode rootNode, ContentHandler contentHandler) throws SAXException {
+        serialize(rootNode, contentHandler, null);
+    }
+
+    /**
+     * Fires events of the whole document made of specified node. Comments and CDATA sections
+     * of script and style tags are reported to the lexical handler, if one is given.
+     * @param rootNode
+     * @param contentHandler
+     * @param lexicalHandler Handler for comments and CDATA sections, may be null
+     * @throws SAXException
+     */
+    public void serialize(TagNode rootNode, ContentHandler contentHandler, LexicalHandler lexicalHandler) throws SAXException {
+        new Emitter(contentHandler, lexicalHandler).emitDocument(rootNode);
+    }
+
+    /**
+     * Creates source for the JAXP transformations (XSLT, validation...) which reads
+     * the specified node instead of parsing some input.
+     * @param rootNode
+     * @return SAXSource reading the node
+     */
+    public SAXSource createSAXSource(TagNode rootNode) {
+        return new SAXSource(createXMLReader(rootNode), new InputSource());
+    }
+
+    /**
+     * Creates XML reader which fires events of the specified node whenever it is asked
+     * to parse, regardless of the input source.
+     * @param rootNode
+     * @return XMLReader reading the node
+     */
+    public XMLReader createXMLReader(TagNode rootNode) {
+        return new TagNodeReader(rootNode);
+    }
+
+    /**
+     * Walks the tree and fires events to the handlers. Character buffer is reused for
+     * all text nodes.
+     */
+    private class Emitter {
+        private ContentHandler contentHandler;
+        private LexicalHandler lexicalHandler;
+        private boolean nsAware = props.isNamespacesAware();
+        private AttributesImpl attributes = new AttributesImpl();
+        private char[] buffer = new char[256];
+
+        private Emitter(ContentHandler contentHandler, LexicalHandler lexicalHandler) {
+            this.contentHandler = contentHandler;
+            this.lexicalHandler = lexicalHandler;
+        }
+
+        private void emitDocument(TagNode rootNode) throws SAXException {
+            contentHandler.startDocument();
+            emitElement(rootNode);
+            contentHandler.endDocument();
+        }
+
+        private void emitElement(TagNode node) throws SAXException {
+            String name = node.getName();
+            String prefix = Utils.getXmlNSPrefix(name);
+            Map<String, String> nsDeclarations = nsAware ? node.getNamespaceDeclarations() : null;
+            String nsURI = null;
+            if (nsAware) {
+                if (nsDeclarations != null) {
+                    nsURI = nsDeclarations.get(prefix == null ? "" : prefix);
+                }
+                if (nsURI == null) {
+                    nsURI = node.getNamespaceURIOnPath(prefix);
+                }
+                if (nsURI == null && prefix != null) {
+                    nsURI = prefix;
+                }
+            } else if (prefix != null) {
+                name = Utils.getXmlName(name);
+            }
+
+            if (nsDeclarations != null) {
+                for (Map.Entry<String, String> entry: nsDeclarations.entrySet()) {
+                    contentHandler.startPrefixMapping(entry.getKey(), entry.getValue());
+                }
+            }
+
+            String uri = nsURI == null ? "" : nsURI;
+            String localName = prefix != null ? Utils.getXmlName(name) : name;
+            contentHandler.startElement(uri, localName, name, createAttributes(node));
+
+            boolean specialCase = props.isUseCdataForScriptAndStyle() &&
+                                  ("script".equalsIgnoreCase(name) || "style".equalsIgnoreCase(name));
+            emitChildren(node.getChildren(), specialCase);
+
+            contentHandler.endElement(uri, localName, name);
+
+            if (nsDeclarations != null) {
+                for (String nsPrefix: nsDeclarations.keySet()) {
+                    contentHandler.endPrefixMapping(nsPrefix);
+                }
+            }
+        }
+
+        private Attributes createAttributes(TagNode node) {
+            attributes.clear();
+            for (Map.Entry<String, String> entry: node.getAttributes().entrySet()) {
+                String attrName = entry.getKey();
+                String attrValue = entry.getValue();
+                if (escapeXml) {
+                    attrValue = Utils.escapeXml(attrValue, props, true);
+                }
+
+                String attPrefix = Utils.getXmlNSPrefix(attrName);
+                if (nsAware && ( "xmlns".equals(attrName) || "xmlns".equals(attPrefix) )) {
+                    // namespace declarations are reported as prefix mappings
+                    continue;
+                }
+                if (attPrefix != null) {
+                    if (nsAware) {
+                        String nsURI = node.getNamespaceURIOnPath(attPrefix);
+                        if (nsURI == null) {
+                            nsURI = attPrefix;
+                        }
+                        attributes.addAttribute(nsURI, Utils.getXmlName(attrName), attrName, "CDATA", attrValue);
+                    } else {
+                        String localName = Utils.getXmlName(attrName);
+                        attributes.addAttribute("", localName, localName, "CDATA", attrValue);
+                    }
+                } else {
+                    attributes.addAttribute("", attrName, attrName, "CDATA", attrValue);
+                }
+            }
+            return attributes;
+        }
+
+        private void emitChildren(List tagChildren, boolean specialCase) throws SAXException {
+            if (tagChildren != null) {
+                Iterator it = tagChildren.iterator();
+                while (it.hasNext()) {
+                    Object item = it.next();
+                    if (item instanceof CommentNode) {
+                        if (lexicalHandler != null) {
+                            String content = ((CommentNode) item).getContent().toString();
+                            int len = fillBuffer(content);
+                            lexicalHandler.comment(buffer, 0, len);
+                        }
+                    } else if (item instanceof ContentNode) {
+                        String content = item.toString();
+                        if (escapeXml && !specialCase) {
+                            content = Utils.escapeXml(content, props, true);
+                        }
+                        int len = fillBuffer(content);
+                        if (specialCase && lexicalHandler != null) {
+                            lexicalHandler.startCDATA();
+                            contentHandler.characters(buffer, 0, len);
+                            lexicalHandler.endCDATA();
+                        } else {
+                            contentHandler.characters(buffer, 0, len);
+                        }
+                    } else if (item instanceof TagNode) {
+                        emitElement((TagNode) item);
+                    } else if (item instanceof List) {
+                        emitChildren((List) item, specialCase);
+                    }
+                }
+            }
+        }
+
+        private int fillBuffer(String content) {
+            int len = content.length();
+            if (len > buffer.length) {
+                buffer = new char[Math.max(len, buffer.length * 2)];
+            }
+            content.getChars(0, len, buffer, 0);
+            return len;
+        }
+    }
+
+    /**
+     * Minimal XMLReader adapter, so that the node can be used wherever JAXP expects
+     * a SAX source.
+     */
+    private class TagNodeReader implements XMLReader {
+        private TagNode rootNode;
+        private ContentHandler contentHandler;
+        private LexicalHandler lexicalHandler;
+        private DTDHandler dtdHandler;
+        private EntityResolver entityResolver;
+        private ErrorHandler errorHandler;
+
+        private TagNodeReader(TagNode rootNode) {
+            this.rootNode = rootNode;
+        }
+
+        public boolean getFeature(String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+            if (NAMESPACES_FEATURE.equals(name)) {
+                return true;
+            } else if (NAMESPACE_PREFIXES_FEATURE.equals(name)) {
+                return false;
+            }
+            throw new SAXNotRecognizedException(name);
+        }
+
+        public void setFeature(String name, boolean value) throws SAXNotRecognizedException, SAXNotSupportedException {
+            if ( getFeature(name) != value ) {
+                throw new SAXNotSupportedException(name);
+            }
+        }
+
+        public Object getProperty(String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+            if (LEXICAL_HANDLER_PROPERTY.equals(name)) {
+                return lexicalHandler;
+            }
+            throw new SAXNotRecognizedException(name);
+        }
+
+        public void setProperty(String name, Object value) throws SAXNotRecognizedException, SAXNotSupportedException {
+            if (LEXICAL_HANDLER_PROPERTY.equals(name)) {
+                lexicalHandler = (LexicalHandler) value;
+            } else {
+                throw new SAXNotRecognizedException(name);
+            }
+        }
+
+        public void setEntityResolver(EntityResolver resolver) {
+            this.entityResolver = resolver;
+        }
+
+        public EntityResolver getEntityResolver() {
+            return entityResolver;
+        }
+
+        public void setDTDHandler(DTDHandler handler) {
+            this.dtdHandler = handler;
+        }
+
+        public DTDHandler getDTDHandler() {
+            return dtdHandler;
+        }
+
+        public void setContentHandler(ContentHandler handler) {
+            this.contentHandler = handler;
+        }
+
+        public ContentHandler getContentHandler() {
+            return contentHandler;
+        }
+
+        public void setErrorHandler(ErrorHandler handler) {
+            this.errorHandler = handler;
+        }
+
+        public ErrorHandler getErrorHandler() {
+            return errorHandler;
+        }
+
+        public void parse(InputSource input) throws IOException, SAXException {
+            if (contentHandler == null) {
+                throw new SAXException("Content handler is not set!");
+            }
+            serialize(rootNode, contentHandler, lexicalHandler);
+        }
+
+        public void parse(String systemId) throws IOException, SAXException {
+            parse((InputSource) null);
+        }
+    }
+
+}
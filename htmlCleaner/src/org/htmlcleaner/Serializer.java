@@ -38,6 +38,8 @@
 package org.htmlcleaner;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.*;
 
 /**
@@ -82,7 +84,7 @@ public abstract class Serializer {
      * @throws IOException
      */
     public void writeToStream(TagNode tagNode, OutputStream out, String charset, boolean omitEnvelope) throws IOException {
-         write( tagNode, new OutputStreamWriter(out, charset), charset, omitEnvelope );
+         writeToChannel( tagNode, Channels.newChannel(out), charset, omitEnvelope );
     }
 
     /**
@@ -118,6 +120,31 @@ public abstract class Serializer {
          writeToStream(tagNode, out, false);
     }
 
+    /**
+     * Writes specified TagNode to the byte channel, using specified charset and optionally omits node envelope
+     * (skips open and close tags of the node). Characters are encoded directly into the channel, using
+     * buffers and encoders reused between calls in the same thread. Channel is closed at the end.
+     * @param tagNode Node to be written
+     * @param channel Output channel
+     * @param charset Charset of the output
+     * @param omitEnvelope Tells whether to skip open and close tag of the node.
+     * @throws IOException
+     */
+    public void writeToChannel(TagNode tagNode, WritableByteChannel channel, String charset, boolean omitEnvelope) throws IOException {
+        write( tagNode, new EncodingWriter(channel, charset), charset, omitEnvelope );
+    }
+
+    /**
+     * Writes specified TagNode to the byte channel, using specified charset.
+     * @param tagNode Node to be written
+     * @param channel Output channel
+     * @param charset Charset of the output
+     * @throws IOException
+     */
+    public void writeToChannel(TagNode tagNode, WritableByteChannel channel, String charset) throws IOException {
+        writeToChannel(tagNode, channel, charset, false);
+    }
+
     /**
      * Writes specified TagNode to the file, using specified charset and optionally omits node envelope
      * (skips open and close tags of the node).
@@ -128,7 +155,7 @@ public abstract class Serializer {
      * @throws IOException
      */
     public void writeToFile(TagNode tagNode, String fileName, String charset, boolean omitEnvelope) throws IOException {
-        writeToStream(tagNode, new FileOutputStream(fileName), charset, omitEnvelope );
+        writeToChannel(tagNode, new FileOutputStream(fileName).getChannel(), charset, omitEnvelope );
     }
 
     /**
@@ -229,30 +256,53 @@ public abstract class Serializer {
         if (omitEnvelope) {
             tagNode = new HeadlessTagNode(tagNode);
         }
-        writer = new BufferedWriter(writer);
-        if ( !props.isOmitXmlDeclaration() ) {
-            String declaration = "<?xml version=\"1.0\"";
-            if (charset != null) {
-                declaration += " encoding=\"" + charset + "\"";
+        // writers which keep output in memory or buffer it themselves are not wrapped
+        if ( !(writer instanceof BufferedWriter || writer instanceof StringWriter || writer instanceof EncodingWriter) ) {
+            writer = new BufferedWriter(writer);
+        }
+        try {
+            if ( !props.isOmitXmlDeclaration() ) {
+                String declaration = "<?xml version=\"1.0\"";
+                if (charset != null) {
+                    declaration += " encoding=\"" + charset + "\"";
+                }
+                declaration += "?>";
+                writer.write(declaration + "\n");
             }
-            declaration += "?>";
-            writer.write(declaration + "\n");
-		}
-		
-		if ( !props.isOmitDoctypeDeclaration() ) {
-			DoctypeToken doctypeToken = tagNode.getDocType();
-			if ( doctypeToken != null ) {
-				doctypeToken.serialize(this, writer);
-			}
-		}
-		
-		serialize(tagNode, writer);
 
-        writer.flush();
-        writer.close();
+            if ( !props.isOmitDoctypeDeclaration() ) {
+                DoctypeToken doctypeToken = tagNode.getDocType();
+                if ( doctypeToken != null ) {
+                    doctypeToken.serialize(this, writer);
+                }
+            }
+
+            serialize(tagNode, writer);
+
+            writer.flush();
+            writer.close();
+        } finally {
+            // after a failure pooled buffers of the encoding writer are given back here,
+            // since close() is never reached
+            if (writer instanceof EncodingWriter) {
+                ((EncodingWriter) writer).release();
+            }
+        }
     }
 
 
+    /**
+     * Writes only the content of specified node - its children, without open and close tag
+     * of the node itself. Writer is neither buffered nor closed, so this may be called many
+     * times for the same output.
+     * @param tagNode Node whose children are serialized
+     * @param writer Writer instance
+     * @throws IOException
+     */
+    public void writeChildren(TagNode tagNode, Writer writer) throws IOException {
+        serialize(new HeadlessTagNode(tagNode), writer);
+    }
+
     protected boolean isScriptOrStyle(TagNode tagNode) {
         String tagName = tagNode.getName();
         return "script".equalsIgnoreCase(tagName) || "style".equalsIgnoreCase(tagName);
@@ -55,7 +55,11 @@ public class SimpleHtmlSerializer extends HtmlSerializer {
             for (Object item: tagNode.getChildren()) {
                 if ( item instanceof ContentNode) {
                     String content = item.toString();
-                    writer.write( dontEscape(tagNode) ? content : escapeText(content) );
+                    if ( dontEscape(tagNode) ) {
+                        writer.write(content);
+                    } else {
+                        writeEscapedText(content, writer);
+                    }
                 } else if (item instanceof BaseToken) {
                     ((BaseToken)item).serialize(this, writer);
                 }
@@ -53,16 +53,39 @@ public class SimpleXmlSerializer extends XmlSerializer {
         serializeOpenTag(tagNode, writer, false);
 
         if ( !isMinimizedTagSyntax(tagNode) ) {
-            for (Object item: tagNode.getChildren()) {
-                if ( item instanceof ContentNode) {
-                    String content = item.toString();
-                    writer.write( dontEscape(tagNode) ? content.replaceAll("]]>", "]]&gt;") : escapeXml(content) );
-                } else if (item instanceof BaseToken) {
-                    ((BaseToken)item).serialize(this, writer);
+            serializeChildren(tagNode, writer);
+            serializeEndTag(tagNode, writer, false);
+        }
+    }
+
+    /**
+     * Writes children of the node directly, keeping CDATA section of script and style tags
+     * the same as in the full serialization of the node.
+     */
+    @Override
+    public void writeChildren(TagNode tagNode, Writer writer) throws IOException {
+        boolean isCData = dontEscape(tagNode);
+        if (isCData) {
+            writer.write("<![CDATA[");
+        }
+        serializeChildren(tagNode, writer);
+        if (isCData) {
+            writer.write("]]>");
+        }
+    }
+
+    private void serializeChildren(TagNode tagNode, Writer writer) throws IOException {
+        for (Object item: tagNode.getChildren()) {
+            if ( item instanceof ContentNode) {
+                String content = item.toString();
+                if ( dontEscape(tagNode) ) {
+                    writeCDataContent(content, writer);
+                } else {
+                    writeEscapedXml(content, writer);
                 }
+            } else if (item instanceof BaseToken) {
+                ((BaseToken)item).serialize(this, writer);
             }
-
-            serializeEndTag(tagNode, writer, false);
         }
     }
 
@@ -41,12 +41,49 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * <p>This class contains map with special entities used in HTML and their unicodes.</p>
+ * <p>This class contains map with special entities used in HTML and their unicodes.
+ * Entity names are also compiled into a character trie, so that entity reference can be
+ * recognized directly in the content, without extracting its name first.</p>
  */
 public class SpecialEntity {
+
+    /**
+     * Node of the entity names trie - children are linked through the first child
+     * and the next sibling, while the root node keeps a direct table for ASCII characters.
+     */
+    private static class TrieNode {
+        private char ch;
+        private TrieNode firstChild;
+        private TrieNode nextSibling;
+        private SpecialEntity entity;
+
+        private TrieNode(char ch) {
+            this.ch = ch;
+        }
+
+        private TrieNode getChild(char ch) {
+            TrieNode child = firstChild;
+            while (child != null && child.ch != ch) {
+                child = child.nextSibling;
+            }
+            return child;
+        }
+
+        private TrieNode addChild(char ch) {
+            TrieNode child = getChild(ch);
+            if (child == null) {
+                child = new TrieNode(ch);
+                child.nextSibling = firstChild;
+                firstChild = child;
+            }
+            return child;
+        }
+    }
 	
 	private static Map<String, SpecialEntity> entities = new HashMap<String, SpecialEntity>();
 
+    private static TrieNode trieRoots[] = new TrieNode[128];
+
     private static int maxEntityLength = 0;
 
     /**
@@ -60,7 +97,9 @@ public class SpecialEntity {
         if (entities.containsKey(entityName)) {
             throw new HtmlCleanerException("Entity \"" + entityName + "\" is already defined!");
         }
-        entities.put(entityName, new SpecialEntity(entityName, intCode));
+        SpecialEntity entity = new SpecialEntity(entityName, intCode);
+        entities.put(entityName, entity);
+        addToTrie(entity);
         int entityNameLen = entityName.length();
         if (entityNameLen > maxEntityLength) {
             maxEntityLength = entityNameLen;
@@ -75,6 +114,57 @@ public class SpecialEntity {
         return maxEntityLength;
     }
 
+    private static void addToTrie(SpecialEntity entity) {
+        String key = entity.getKey();
+        char first = key.charAt(0);
+        TrieNode node;
+        if (first < trieRoots.length) {
+            node = trieRoots[first];
+            if (node == null) {
+                node = new TrieNode(first);
+                trieRoots[first] = node;
+            }
+        } else {
+            if (trieRoots[0] == null) {
+                trieRoots[0] = new TrieNode((char) 0);
+            }
+            node = trieRoots[0].addChild(first);
+        }
+        for (int i = 1; i < key.length(); i++) {
+            node = node.addChild( key.charAt(i) );
+        }
+        node.entity = entity;
+    }
+
+    /**
+     * Recognizes entity whose name starts at specified position (right after the ampersand)
+     * and is terminated by semicolon. No intermediate strings are created.
+     * @param s Content
+     * @param start Index of the first character of the entity name
+     * @param end Index after the last character that may be examined
+     * @return Entity found, or null if there is no known entity name followed by semicolon at the position.
+     */
+    static SpecialEntity matchEntity(CharSequence s, int start, int end) {
+        if (start >= end) {
+            return null;
+        }
+        char first = s.charAt(start);
+        TrieNode node;
+        if (first < trieRoots.length) {
+            node = first == 0 ? null : trieRoots[first];
+        } else {
+            node = trieRoots[0] == null ? null : trieRoots[0].getChild(first);
+        }
+        for (int i = start + 1; node != null && i < end; i++) {
+            char ch = s.charAt(i);
+            if (ch == ';') {
+                return node.entity;
+            }
+            node = node.getChild(ch);
+        }
+        return null;
+    }
+
     static {
         addEntity("nbsp", 160);
         addEntity("iexcl", 161);
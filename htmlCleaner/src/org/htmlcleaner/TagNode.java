@@ -121,15 +121,277 @@ public class TagNode extends TagToken implements HtmlNode {
         }
     }
 
+    /**
+     * List of children, which saves its content before the first change made while some traversal
+     * iterates it in place. Traversals thus don't need to copy children of every visited node.
+     * Every change, including those made through sublists, iterators and default methods like
+     * removeIf() or sort(), goes through add(), set(), remove() or removeRange(), which invalidate
+     * the owner's subtree hash and refuse to change the frozen list. Traversal counters are
+     * guarded by the list's lock, so concurrent traversals don't disturb each other.
+     */
+    private static class ChildList extends AbstractList implements RandomAccess {
+        // node owning the list, whose subtree hash is invalidated on every change
+        private final TagNode owner;
+        private final ArrayList items = new ArrayList();
+        // frozen list is never changed, so traversals don't have to track it
+        private boolean frozen = false;
+        // number of traversals currently iterating this list in place
+        private int traversals = 0;
+        // content before the first change made during the traversals, with its modification count
+        private Object[] snapshot = null;
+        private int snapshotModCount;
+
+        private ChildList(TagNode owner) {
+            this.owner = owner;
+        }
+
+        private int getModCount() {
+            return modCount;
+        }
+
+        private void beforeChange() {
+            if (frozen) {
+                throw new UnsupportedOperationException(FROZEN_MESSAGE);
+            }
+            if (owner.isHashValid) {
+                owner.invalidateSubtreeHash();
+            }
+            synchronized (this) {
+                if (traversals > 0 && snapshot == null) {
+                    snapshot = items.toArray();
+                    snapshotModCount = modCount;
+                }
+            }
+            modCount++;
+        }
+
+        /**
+         * @return Whether the list may be iterated in place, i.e. it wasn't changed during some
+         * other traversal still in progress.
+         */
+        private synchronized boolean startTraversal() {
+            if (frozen) {
+                return true;
+            }
+            if (snapshot != null) {
+                return false;
+            }
+            traversals++;
+            return true;
+        }
+
+        private synchronized void endTraversal() {
+            if (!frozen && --traversals == 0) {
+                snapshot = null;
+            }
+        }
+
+        /**
+         * @return Content the list had at the specified modification count, if it is still known, or
+         * the current content otherwise.
+         */
+        private synchronized Object[] getContent(int modCount) {
+            return snapshot != null && snapshotModCount == modCount ? snapshot : items.toArray();
+        }
+
+        private synchronized void freeze() {
+            frozen = true;
+            traversals = 0;
+            snapshot = null;
+        }
+
+        public Object get(int index) {
+            return items.get(index);
+        }
+
+        public int size() {
+            return items.size();
+        }
+
+        public Object set(int index, Object element) {
+            beforeChange();
+            return items.set(index, element);
+        }
+
+        public void add(int index, Object element) {
+            beforeChange();
+            items.add(index, element);
+        }
+
+        public Object remove(int index) {
+            beforeChange();
+            return items.remove(index);
+        }
+
+        public boolean add(Object o) {
+            beforeChange();
+            return items.add(o);
+        }
+
+        public boolean addAll(Collection c) {
+            beforeChange();
+            return items.addAll(c);
+        }
+
+        public boolean addAll(int index, Collection c) {
+            beforeChange();
+            return items.addAll(index, c);
+        }
+
+        public void clear() {
+            removeRange(0, items.size());
+        }
+
+        protected void removeRange(int fromIndex, int toIndex) {
+            beforeChange();
+            items.subList(fromIndex, toIndex).clear();
+        }
+
+        public int indexOf(Object o) {
+            return items.indexOf(o);
+        }
+
+        public boolean contains(Object o) {
+            return items.contains(o);
+        }
+
+        public Object[] toArray() {
+            return items.toArray();
+        }
+
+        public Object[] toArray(Object[] a) {
+            return items.toArray(a);
+        }
+    }
+
+    /**
+     * Explicit stack of the tree traversal. Children are iterated in place, unless their list
+     * is changed during the traversal, when iteration continues over the content the list had
+     * when the node was entered.
+     */
+    private static class TraversalStack {
+        private TagNode[] nodes = new TagNode[16];
+        private ChildList[] lists = new ChildList[16];
+        private Object[][] copies = new Object[16][];
+        private int[] indexes = new int[16];
+        private int[] modCounts = new int[16];
+        private int size = 0;
+
+        private void push(TagNode node) {
+            if (size == nodes.length) {
+                int newLength = size * 2;
+                TagNode[] newNodes = new TagNode[newLength];
+                ChildList[] newLists = new ChildList[newLength];
+                Object[][] newCopies = new Object[newLength][];
+                int[] newIndexes = new int[newLength];
+                int[] newModCounts = new int[newLength];
+                System.arraycopy(nodes, 0, newNodes, 0, size);
+                System.arraycopy(lists, 0, newLists, 0, size);
+                System.arraycopy(copies, 0, newCopies, 0, size);
+                System.arraycopy(indexes, 0, newIndexes, 0, size);
+                System.arraycopy(modCounts, 0, newModCounts, 0, size);
+                nodes = newNodes;
+                lists = newLists;
+                copies = newCopies;
+                indexes = newIndexes;
+                modCounts = newModCounts;
+            }
+            ChildList list = (ChildList) node.getChildren();
+            nodes[size] = node;
+            indexes[size] = 0;
+            if ( list.startTraversal() ) {
+                lists[size] = list;
+                copies[size] = null;
+                modCounts[size] = list.getModCount();
+            } else {
+                // list already changed during other traversal, so it's simpler to copy it right away
+                lists[size] = null;
+                copies[size] = list.toArray();
+            }
+            size++;
+        }
+
+        /**
+         * @return Next child of the node at the top of the stack, or the stack itself when there are no more children.
+         */
+        private Object next() {
+            int top = size - 1;
+            ChildList list = lists[top];
+            if (list != null) {
+                if (list.getModCount() == modCounts[top]) {
+                    int index = indexes[top];
+                    if (index < list.size()) {
+                        indexes[top] = index + 1;
+                        return list.get(index);
+                    }
+                    return this;
+                }
+                copies[top] = list.getContent(modCounts[top]);
+                lists[top] = null;
+                list.endTraversal();
+            }
+            Object[] copy = copies[top];
+            int index = indexes[top];
+            if (index < copy.length) {
+                indexes[top] = index + 1;
+                return copy[index];
+            }
+            return this;
+        }
+
+        private void pop() {
+            size--;
+            if (lists[size] != null) {
+                lists[size].endTraversal();
+            }
+            nodes[size] = null;
+            lists[size] = null;
+            copies[size] = null;
+        }
+
+        private void clear() {
+            while (size > 0) {
+                pop();
+            }
+        }
+    }
+
+    private static final String FROZEN_MESSAGE = "Node is frozen and cannot be changed!";
+
+    // seeds of the node kinds and parts, so that equal strings in different roles hash differently
+    private static final long TAG_SEED = 0x2545F4914F6CDD1DL;
+    private static final long ATTRIBUTE_SEED = 0x9E3779B97F4A7C15L;
+    private static final long NAMESPACE_SEED = 0xC2B2AE3D27D4EB4FL;
+    private static final long TEXT_SEED = 0x165667B19E3779F9L;
+    private static final long COMMENT_SEED = 0x27D4EB2F165667C5L;
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
     private TagNode parent = null; 
     private Map<String, String> attributes = new LinkedHashMap<String, String>();
-    private List children = new ArrayList();
+    private List children = new ChildList(this);
     private DoctypeToken docType = null;
+    // position in the input where cleaning stopped because of a budget, -1 if it was not truncated
+    private int truncationOffset = -1;
     private Map<String, String> nsDeclarations = null;
     private List<BaseToken> itemsToMove = null;
 
+    // raw content of the lazy container and the cleaner used to clean it on first access;
+    // content is cleared only after the children are in place, so readers seeing null see them
+    private volatile String lazyContent = null;
+    private HtmlCleaner lazyCleaner = null;
+
     private transient boolean isFormed = false;
 
+    // frozen node and its subtree are immutable, see freeze()
+    private boolean frozen = false;
+    // text of the frozen node, computed on first request
+    private volatile String frozenText = null;
+
+    // hash of the subtree, valid only if hashes of all the nodes below are valid too
+    private long subtreeHash;
+    private boolean isHashValid = false;
+
 
     public TagNode(String name) {
         super(name == null ? null : name.toLowerCase());
@@ -141,7 +403,9 @@ public class TagNode extends TagToken implements HtmlNode {
      * @return True if new name is valid, false otherwise
      */
     public boolean setName(String name) {
+        checkNotFrozen();
         if (Utils.isValidXmlIdentifier(name)) {
+            invalidateSubtreeHash();
             this.name = name;
             return true;
         }
@@ -189,7 +453,9 @@ public class TagNode extends TagToken implements HtmlNode {
      * @param attValue
      */
     public void setAttribute(String attName, String attValue) {
+        checkNotFrozen();
         if ( attName != null && !"".equals(attName.trim()) ) {
+            invalidateSubtreeHash();
             attName = attName.toLowerCase();
             if ("xmlns".equals(attName)) {
                 addNamespaceDeclaration("", attValue);    
@@ -207,6 +473,8 @@ public class TagNode extends TagToken implements HtmlNode {
      * @param nsURI Namespace URI
      */
     public void addNamespaceDeclaration(String nsPrefix, String nsURI) {
+        checkNotFrozen();
+        invalidateSubtreeHash();
         if (nsDeclarations == null) {
             nsDeclarations = new TreeMap<String, String>();
         }
@@ -225,7 +493,9 @@ public class TagNode extends TagToken implements HtmlNode {
      * @param attName
      */
     public void removeAttribute(String attName) {
+        checkNotFrozen();
         if ( attName != null && !"".equals(attName.trim()) ) {
+            invalidateSubtreeHash();
             attributes.remove( attName.toLowerCase() );
         }
     }
@@ -235,6 +505,9 @@ public class TagNode extends TagToken implements HtmlNode {
      * childern inside, however after clean there should be only TagNode instances.
      */
     public List getChildren() {
+        if (lazyContent != null) {
+            materialize();
+        }
 		return children;
 	}
 
@@ -242,14 +515,60 @@ public class TagNode extends TagToken implements HtmlNode {
      * @return Whether this node has child elements or not.
      */
     public boolean hasChildren() {
-        return children.size() > 0;
+        return getChildren().size() > 0;
     }
 
     void setChildren(List children) {
-        this.children = children;
+        checkNotFrozen();
+        this.lazyContent = null;
+        this.lazyCleaner = null;
+        invalidateSubtreeHash();
+        this.children = new ChildList(this);
+        this.children.addAll(children);
+    }
+
+    /**
+     * @return Whether content of this node is still kept unparsed (see CleanerProperties.setLazyTags()).
+     * Any access to the children causes the content to be cleaned. Several threads may read the
+     * same lazy node at once; the content is cleaned only once.
+     */
+    public boolean isLazy() {
+        return lazyContent != null;
+    }
+
+    void setLazyContent(String lazyContent, HtmlCleaner lazyCleaner) {
+        checkNotFrozen();
+        invalidateSubtreeHash();
+        this.lazyContent = lazyContent;
+        this.lazyCleaner = lazyCleaner;
+    }
+
+    /**
+     * Cleans raw content of the lazy node and makes it children of this node. It is done under
+     * the lock of the children list, the same one its changes and traversals use, so threads
+     * reading the same lazy node at once clean it only once and don't see it half filled.
+     */
+    private void materialize() {
+        ChildList list = (ChildList) children;
+        synchronized (list) {
+            String content = lazyContent;
+            HtmlCleaner cleaner = lazyCleaner;
+            if (content == null || cleaner == null) {
+                return; // already cleaned, or being cleaned by this thread
+            }
+            lazyCleaner = null;
+            try {
+                List newChildren = cleaner.cleanFragment(this, content);
+                list.clear();
+                addChildren(newChildren);
+            } finally {
+                lazyContent = null;
+            }
+        }
     }
 
     public List getChildTagList() {
+        List children = getChildren();
         List childTagList = new ArrayList();
         for (int i = 0; i < children.size(); i++) {
             Object item = children.get(i);
@@ -278,20 +597,69 @@ public class TagNode extends TagToken implements HtmlNode {
      * @return Text content of this node and it's subelements.
      */
     public StringBuffer getText() {
-        StringBuffer text = new StringBuffer();
-        for (int i = 0; i < children.size(); i++) {
-            Object item = children.get(i);
-            if (item instanceof ContentNode) {
-                text.append(item.toString());
-            } else if (item instanceof TagNode) {
-                StringBuffer subtext = ((TagNode)item).getText();
-                text.append(subtext);
+        if (frozen) {
+            String text = frozenText;
+            if (text == null) {
+                StringBuffer buffer = new StringBuffer();
+                appendText(buffer);
+                text = buffer.toString();
+                frozenText = text;
             }
+            return new StringBuffer(text);
         }
 
+        StringBuffer text = new StringBuffer();
+        appendText(text);
         return text;
     }
 
+    /**
+     * Appends text content of this node and it's subelements to the specified output,
+     * in a single pass without intermediate buffers. Like traverse(), it walks the tree
+     * with an explicit stack, so deeply nested documents don't overflow the call stack.
+     * @param out Output, for example StringBuilder or Writer
+     * @throws IOException
+     */
+    public void getText(Appendable out) throws IOException {
+        String text = frozenText;
+        if (text != null) {
+            out.append(text);
+            return;
+        }
+
+        TraversalStack stack = new TraversalStack();
+        try {
+            stack.push(this);
+            while (stack.size > 0) {
+                Object child = stack.next();
+                if (child == stack) {
+                    stack.pop();
+                } else if (child instanceof ContentNode) {
+                    out.append( ((ContentNode)child).getCharacters() );
+                } else if (child instanceof TagNode) {
+                    TagNode childNode = (TagNode) child;
+                    String childText = childNode.frozenText;
+                    if (childText != null) {
+                        out.append(childText);
+                    } else {
+                        stack.push(childNode);
+                    }
+                }
+            }
+        } finally {
+            stack.clear();
+        }
+    }
+
+    private void appendText(StringBuffer text) {
+        try {
+            getText(text);
+        } catch (IOException e) {
+            // should never happen because appending to StringBuffer
+            throw new HtmlCleanerException(e);
+        }
+    }
+
     /**
      * @return Parent of this node, or null if this is the root node.
      */
@@ -304,9 +672,32 @@ public class TagNode extends TagToken implements HtmlNode {
     }
 
     public void setDocType(DoctypeToken docType) {
+        checkNotFrozen();
         this.docType = docType;
     }
 
+    /**
+     * @return Whether cleaning stopped before the end of the input, because one of the budgets set
+     * in CleanerProperties (max input chars, max node count, max text chars) was used up. The tree
+     * then holds only the content read before that point. Set on the root node returned by the cleaner.
+     */
+    public boolean isTruncated() {
+        return truncationOffset >= 0;
+    }
+
+    /**
+     * @return Position in the input where cleaning stopped, or -1 if the content was not truncated.
+     * @see #isTruncated()
+     */
+    public int getTruncationOffset() {
+        return truncationOffset;
+    }
+
+    void setTruncationOffset(int truncationOffset) {
+        checkNotFrozen();
+        this.truncationOffset = truncationOffset;
+    }
+
     public void addChild(Object child) {
         if (child == null) {
             return;
@@ -314,7 +705,7 @@ public class TagNode extends TagToken implements HtmlNode {
         if (child instanceof List) {
             addChildren( (List)child );
         } else {
-            children.add(child);
+            getChildren().add(child);
             if (child instanceof TagNode) {
                 TagNode childTagNode = (TagNode)child;
                 childTagNode.parent = this;
@@ -347,6 +738,7 @@ public class TagNode extends TagToken implements HtmlNode {
             return null;
         }
 
+        List children = getChildren();
         for (int i = 0; i < children.size(); i++) {
             Object item = children.get(i);
             if (item instanceof TagNode) {
@@ -377,6 +769,7 @@ public class TagNode extends TagToken implements HtmlNode {
             return result;
         }
 
+        List children = getChildren();
         for (int i = 0; i < children.size(); i++) {
             Object item = children.get(i);
             if (item instanceof TagNode) {
@@ -489,6 +882,7 @@ public class TagNode extends TagToken implements HtmlNode {
      * @return True if element is removed (if it is not root node).
      */
     public boolean removeFromTree() {
+        checkNotFrozen();
         if (parent != null) {
             boolean existed = parent.removeChild(this);
             parent = null;
@@ -503,16 +897,33 @@ public class TagNode extends TagToken implements HtmlNode {
      * @return True if child object existed in the children list.
      */
     public boolean removeChild(Object child) {
-        return this.children.remove(child);
+        return getChildren().remove(child);
     }
 
     /**
      * Removes all children (subelements and text content).
      */
     public void removeAllChildren() {
+        checkNotFrozen();
+        this.lazyContent = null;
+        this.lazyCleaner = null;
         this.children.clear();
     }
 
+    /**
+     * Removes all children and returns them, with parent of the child nodes cleared.
+     */
+    List detachChildren() {
+        List detached = new ArrayList(getChildren());
+        removeAllChildren();
+        for (Object child: detached) {
+            if (child instanceof TagNode) {
+                ((TagNode) child).parent = null;
+            }
+        }
+        return detached;
+    }
+
     /**
      * Replaces specified child node with specified replacement node.
      * @param childToReplace Child node to be replaced
@@ -522,7 +933,7 @@ public class TagNode extends TagToken implements HtmlNode {
         if (replacement == null) {
             return;
         }
-        ListIterator it = children.listIterator();
+        ListIterator it = getChildren().listIterator();
         while (it.hasNext()) {
             Object curr = it.next();
             if (curr == childToReplace) {
@@ -538,7 +949,7 @@ public class TagNode extends TagToken implements HtmlNode {
      */
     public int getChildIndex(HtmlNode child) {
         int index = 0;
-        for (Object curr: children) {
+        for (Object curr: getChildren()) {
             if (curr == child) {
                 return index;
             }
@@ -553,7 +964,7 @@ public class TagNode extends TagToken implements HtmlNode {
      * @param childToAdd
      */
     public void insertChild(int index, HtmlNode childToAdd) {
-        children.add(index, childToAdd);
+        getChildren().add(index, childToAdd);
     }
 
     /**
@@ -580,6 +991,189 @@ public class TagNode extends TagToken implements HtmlNode {
         }
     }
 
+    /**
+     * Makes this node and all the nodes below it immutable. Lazy content is cleaned first, and
+     * any later attempt to change the nodes, their attributes or children lists throws
+     * UnsupportedOperationException. Frozen tree holds no state that changes on reading, so once
+     * safely published it may be shared between threads without copying. Text of the frozen node
+     * is computed only once, and subtree hashes are computed before freezing.
+     * @return This node
+     */
+    public TagNode freeze() {
+        // hashes are computed before, so that nothing is written to the frozen nodes later
+        getSubtreeHash();
+        List<TagNode> pending = new ArrayList<TagNode>();
+        pending.add(this);
+        while ( !pending.isEmpty() ) {
+            TagNode node = pending.remove(pending.size() - 1);
+            if (node.frozen) {
+                continue;
+            }
+            for (Object child: node.getChildren()) {
+                if (child instanceof TagNode) {
+                    pending.add((TagNode) child);
+                } else if (child instanceof ContentNode) {
+                    ((ContentNode) child).freeze();
+                } else if (child instanceof CommentNode) {
+                    ((CommentNode) child).freeze();
+                }
+            }
+            node.attributes = Collections.unmodifiableMap(node.attributes);
+            if (node.nsDeclarations != null) {
+                node.nsDeclarations = Collections.unmodifiableMap(node.nsDeclarations);
+            }
+            node.itemsToMove = null;
+            ((ChildList) node.children).freeze();
+            node.frozen = true;
+        }
+        return this;
+    }
+
+    /**
+     * Returns structural hash of this node's subtree, computed from the tag name, attributes,
+     * namespace declarations and hashes of the children in their order. Text and comments
+     * contribute their content, doctype is not included. Equal subtrees have equal hashes in
+     * any tree and any run, so the hash may be used as key of caches or to find unchanged parts
+     * of two documents - different hash means the subtrees surely differ, while equal one means
+     * they are equal with very high probability.
+     * <p>Hashes are cached on the nodes and computed again only for the nodes changed since,
+     * and their ancestors. Changes made through the methods of this class and the children list,
+     * including its sublists, iterators, removeIf() and sort(), are tracked (ancestors are found
+     * by getParent()), but changes made directly to the map
+     * returned by getAttributes() or to the content of text and comment nodes are not - hash
+     * of such node has to be refreshed by some tracked change, for example setAttribute().</p>
+     * @return Hash of this subtree
+     */
+    public long getSubtreeHash() {
+        if (!isHashValid) {
+            computeSubtreeHashes();
+        }
+        return subtreeHash;
+    }
+
+    /**
+     * Computes hashes of all the nodes below which are not valid, children before parents,
+     * without recursion.
+     */
+    private void computeSubtreeHashes() {
+        List<TagNode> pending = new ArrayList<TagNode>();
+        pending.add(this);
+        while ( !pending.isEmpty() ) {
+            int last = pending.size() - 1;
+            TagNode node = pending.get(last);
+            if (node.isHashValid) {
+                pending.remove(last);
+                continue;
+            }
+            boolean isReady = true;
+            for (Object child: node.getChildren()) {
+                if ( child instanceof TagNode && !((TagNode) child).isHashValid ) {
+                    pending.add((TagNode) child);
+                    isReady = false;
+                }
+            }
+            if (isReady) {
+                pending.remove(last);
+                node.subtreeHash = node.computeOwnHash();
+                node.isHashValid = true;
+            }
+        }
+    }
+
+    /**
+     * @return Hash of this node, assuming that hashes of its child nodes are valid.
+     */
+    private long computeOwnHash() {
+        long hash = mix(TAG_SEED ^ hashChars(name));
+        hash = mix(hash ^ hashMap(attributes, ATTRIBUTE_SEED));
+        if (nsDeclarations != null) {
+            hash = mix(hash ^ hashMap(nsDeclarations, NAMESPACE_SEED));
+        }
+        for (Object child: children) {
+            if (child instanceof HtmlNode) {
+                hash = mix( hash * FNV_PRIME + getNodeHash((HtmlNode) child) );
+            }
+        }
+        return mix(hash ^ children.size());
+    }
+
+    /**
+     * @param node Tag, text or comment node
+     * @return Subtree hash of the tag node, or hash of the text or comment content.
+     */
+    static long getNodeHash(HtmlNode node) {
+        if (node instanceof TagNode) {
+            return ((TagNode) node).getSubtreeHash();
+        } else if (node instanceof ContentNode) {
+            return mix( TEXT_SEED ^ hashChars(((ContentNode) node).getCharacters()) );
+        } else if (node instanceof CommentNode) {
+            return mix( COMMENT_SEED ^ hashChars(((CommentNode) node).getCharacters()) );
+        }
+        return 0;
+    }
+
+    /**
+     * Invalidates hash of this node and its ancestors. Ancestor with invalid hash already
+     * has all its ancestors invalid too, so walking stops there.
+     */
+    private void invalidateSubtreeHash() {
+        TagNode node = this;
+        while (node != null && node.isHashValid) {
+            node.isHashValid = false;
+            node = node.parent;
+        }
+    }
+
+    /**
+     * @return Hash of the map entries, not depending on their order.
+     */
+    private static long hashMap(Map<String, String> map, long seed) {
+        long sum = 0;
+        for (Map.Entry<String, String> entry: map.entrySet()) {
+            sum += mix( (seed ^ hashChars(entry.getKey())) * FNV_PRIME + hashChars(entry.getValue()) );
+        }
+        return mix(sum + map.size());
+    }
+
+    /**
+     * @return FNV-1a hash of the characters.
+     */
+    private static long hashChars(CharSequence chars) {
+        long hash = FNV_OFFSET;
+        if (chars != null) {
+            int length = chars.length();
+            for (int i = 0; i < length; i++) {
+                hash = (hash ^ chars.charAt(i)) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Final mixing step of MurmurHash3, spreads every input bit over the whole result.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * @return Whether this node is frozen, i.e. immutable.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException(FROZEN_MESSAGE);
+        }
+    }
+
     void addItemForMoving(BaseToken item) {
     	if (itemsToMove == null) {
     		itemsToMove = new ArrayList<BaseToken>();
@@ -609,24 +1203,14 @@ public class TagNode extends TagToken implements HtmlNode {
 	}
 
     void transformAttributes(TagTransformation tagTrans) {
+        checkNotFrozen();
         boolean isPreserveSourceAtts = tagTrans.isPreserveSourceAttributes();
         boolean hasAttTransforms = tagTrans.hasAttributeTransformations();
         if ( hasAttTransforms || !isPreserveSourceAtts) {
+            invalidateSubtreeHash();
             Map<String, String> newAttributes = isPreserveSourceAtts ? new LinkedHashMap<String, String>(attributes) : new LinkedHashMap<String, String>();
             if (hasAttTransforms) {
-                Map map = tagTrans.getAttributeTransformations();
-                Iterator iterator = map.entrySet().iterator();
-                while (iterator.hasNext()) {
-                    Map.Entry entry = (Map.Entry) iterator.next();
-                    String attName = (String) entry.getKey();
-                    String template = (String) entry.getValue();
-                    if (template == null) {
-                        newAttributes.remove(attName);
-                    } else {
-                        String attValue = Utils.evaluateTemplate(template, attributes);
-                        newAttributes.put(attName, attValue);
-                    }
-                }
+                tagTrans.transformAttributes(attributes, newAttributes);
             }
             this.attributes = newAttributes;
         }
@@ -635,37 +1219,50 @@ public class TagNode extends TagToken implements HtmlNode {
     /**
      * Traverses the tree and performs visitor's action on each node. It stops when it
      * finishes all the tree or when visitor returns false.
+     * <p>Several threads may traverse the same tree at once as long as none of them changes it.
+     * Changing an unfrozen tree while other threads traverse or read it is not safe - such tree
+     * has to be guarded by the caller, or frozen by freeze() before it is shared.</p>
      * @param visitor TagNodeVisitor implementation
      */
     public void traverse(TagNodeVisitor visitor) {
-        traverseInternally(visitor);
-    }
-
+        if (visitor == null) {
+            return;
+        }
 
-    private boolean traverseInternally(TagNodeVisitor visitor) {
-        if (visitor != null) {
-            boolean hasParent = parent != null;
-            boolean toContinue = visitor.visit(parent, this);
+        boolean hasParent = parent != null;
+        if ( !visitor.visit(parent, this) ) {
+            return; // if visitor stops traversal
+        } else if (hasParent && parent == null) {
+            return; // if this node is pruned from the tree during the visit, then don't go deeper
+        }
 
-            if (!toContinue) {
-                return false; // if visitor stops traversal
-            } else if (hasParent && parent == null) {
-                return true; // if this node is pruned from the tree during the visit, then don't go deeper
-            }
-            for (Object child: children.toArray()) {  // make an array to avoid ConcurrentModificationException when some node is cut 
-                if (child instanceof TagNode) {
-                    toContinue = ((TagNode)child).traverseInternally(visitor);
+        TraversalStack stack = new TraversalStack();
+        try {
+            stack.push(this);
+            while (stack.size > 0) {
+                Object child = stack.next();
+                boolean toContinue = true;
+                if (child == stack) {
+                    stack.pop();
+                } else if (child instanceof TagNode) {
+                    TagNode childNode = (TagNode) child;
+                    hasParent = childNode.parent != null;
+                    toContinue = visitor.visit(childNode.parent, childNode);
+                    if ( toContinue && !(hasParent && childNode.parent == null) ) {
+                        stack.push(childNode);
+                    }
                 } else if (child instanceof ContentNode) {
-                    toContinue = visitor.visit(this, (ContentNode)child);
+                    toContinue = visitor.visit(stack.nodes[stack.size - 1], (ContentNode)child);
                 } else if (child instanceof CommentNode) {
-                    toContinue = visitor.visit(this, (CommentNode)child);
+                    toContinue = visitor.visit(stack.nodes[stack.size - 1], (CommentNode)child);
                 }
                 if (!toContinue) {
-                    return false;
+                    return; // if visitor stops traversal
                 }
             }
+        } finally {
+            stack.clear();
         }
-        return true;
     }
 
 
@@ -711,4 +1308,35 @@ public class TagNode extends TagToken implements HtmlNode {
     	return copy;
     }
 
+    /**
+     * Makes a copy of this node including children, parent and the state used during cleaning.
+     * Used by CleanCheckpoint - already copied objects are taken from the specified map.
+     * @param copies
+     */
+    TagNode makeCheckpointCopy(Map<Object, Object> copies) {
+        TagNode copy = new TagNode(name);
+        copies.put(this, copy);
+        copy.name = name;
+        copy.attributes.putAll(attributes);
+        if (nsDeclarations != null) {
+            copy.nsDeclarations = new TreeMap<String, String>(nsDeclarations);
+        }
+        copy.docType = docType;
+        copy.truncationOffset = truncationOffset;
+        copy.isFormed = isFormed;
+        copy.lazyContent = lazyContent;
+        copy.lazyCleaner = lazyCleaner;
+        if (itemsToMove != null) {
+            copy.itemsToMove = new ArrayList<BaseToken>(itemsToMove.size());
+            for (BaseToken item: itemsToMove) {
+                copy.itemsToMove.add( (BaseToken) CleanCheckpoint.copy(item, copies) );
+            }
+        }
+        for (Object child: children) {
+            copy.children.add( CleanCheckpoint.copy(child, copies) );
+        }
+        copy.parent = (TagNode) CleanCheckpoint.copy(parent, copies);
+        return copy;
+    }
+
 }
\ No newline at end of file
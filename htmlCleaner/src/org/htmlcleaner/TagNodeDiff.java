@@ -0,0 +1,461 @@
+/*  Copyright (c) 2006-2007, Vladimir Nikic
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+    You can contact Vladimir Nikic by sending e-mail to
+    nikic_vladimir@yahoo.com. Please include the word "HtmlCleaner" in the
+    subject line.
+*/
+
+package org.htmlcleaner;
+
+import java.util.*;
+
+/**
+ * <p>
+ *      Compares two cleaned trees, typically two fetches of the same page, and produces the list of
+ *      edits turning the old tree into the new one. Subtrees with equal hashes (see TagNode.getSubtreeHash())
+ *      are skipped without looking inside, so the cost depends on the size of the changed parts.
+ * </p>
+ * <p>
+ *      Children of two corresponding nodes are matched in three steps: first the tags having the same
+ *      anchor (by default the value of the "id" attribute, unique among the children), then the longest
+ *      common subsequence of unchanged subtrees, and finally the remaining tags with the same name, text
+ *      nodes and comments in order of appearance between the already matched ones. Matched tags are
+ *      compared further, the rest is reported as removed or inserted. Change of position of the anchored
+ *      tags among their siblings is not reported.
+ * </p>
+ */
+public class TagNodeDiff {
+
+    /**
+     * Node exists only in the new tree.
+     */
+    public static final int INSERTED = 1;
+
+    /**
+     * Node exists only in the old tree.
+     */
+    public static final int REMOVED = 2;
+
+    /**
+     * Nodes correspond, but the tag's name, attributes or namespace declarations, or the text or comment
+     * content differ. Changes of the tag's children are reported separately.
+     */
+    public static final int CHANGED = 3;
+
+    /**
+     * Single edit of the script.
+     */
+    public static class Edit {
+        private int type;
+        private HtmlNode oldNode;
+        private HtmlNode newNode;
+        private TagNode oldParent;
+        private TagNode newParent;
+
+        private Edit(int type, HtmlNode oldNode, HtmlNode newNode, TagNode oldParent, TagNode newParent) {
+            this.type = type;
+            this.oldNode = oldNode;
+            this.newNode = newNode;
+            this.oldParent = oldParent;
+            this.newParent = newParent;
+        }
+
+        /**
+         * @return One of INSERTED, REMOVED and CHANGED.
+         */
+        public int getType() {
+            return type;
+        }
+
+        /**
+         * @return Node of the old tree, null for inserted nodes.
+         */
+        public HtmlNode getOldNode() {
+            return oldNode;
+        }
+
+        /**
+         * @return Node of the new tree, null for removed nodes.
+         */
+        public HtmlNode getNewNode() {
+            return newNode;
+        }
+
+        /**
+         * @return Parent of the node in the old tree, null for inserted nodes and the old root.
+         */
+        public TagNode getOldParent() {
+            return oldParent;
+        }
+
+        /**
+         * @return Parent of the node in the new tree, null for removed nodes and the new root.
+         */
+        public TagNode getNewParent() {
+            return newParent;
+        }
+
+        public String toString() {
+            String typeName = type == INSERTED ? "INSERTED" : (type == REMOVED ? "REMOVED" : "CHANGED");
+            return typeName + ": " + describe(oldNode) + " -> " + describe(newNode);
+        }
+
+        private String describe(HtmlNode node) {
+            if (node instanceof TagNode) {
+                TagNode tagNode = (TagNode) node;
+                return "<" + tagNode.getName() + tagNode.getAttributes() + ">";
+            }
+            return String.valueOf(node);
+        }
+    }
+
+    // above this number of compared pairs, common subsequence is searched greedily instead of exactly
+    private static final int MAX_LCS_CELLS = 1 << 22;
+
+    private String anchorAttribute;
+
+    /**
+     * Creates diff which anchors tags by their "id" attribute.
+     */
+    public TagNodeDiff() {
+        this("id");
+    }
+
+    /**
+     * @param anchorAttribute Attribute whose value identifies the tag among its siblings in both trees,
+     * for example id of the post. If null, tags are matched only by their content and position.
+     */
+    public TagNodeDiff(String anchorAttribute) {
+        this.anchorAttribute = anchorAttribute == null ? null : anchorAttribute.toLowerCase();
+    }
+
+    /**
+     * Compares two trees. Edits are ordered so that changes of a node come before the changes of its
+     * descendants, and siblings follow their order in the trees.
+     * @param oldRoot Root of the old tree
+     * @param newRoot Root of the new tree
+     * @return List of edits, empty if the trees are equal
+     */
+    public List<Edit> diff(TagNode oldRoot, TagNode newRoot) {
+        List<Edit> edits = new ArrayList<Edit>();
+        if ( oldRoot.getSubtreeHash() == newRoot.getSubtreeHash() ) {
+            return edits;
+        }
+        if ( !isSame(oldRoot.getName(), newRoot.getName()) ) {
+            edits.add( new Edit(REMOVED, oldRoot, null, null, null) );
+            edits.add( new Edit(INSERTED, null, newRoot, null, null) );
+            return edits;
+        }
+
+        // pairs of matched tags still to be compared, last pair is compared first
+        List<TagNode> pending = new ArrayList<TagNode>();
+        pending.add(newRoot);
+        pending.add(oldRoot);
+        while ( !pending.isEmpty() ) {
+            TagNode oldNode = pending.remove(pending.size() - 1);
+            TagNode newNode = pending.remove(pending.size() - 1);
+            if ( !hasSameProperties(oldNode, newNode) ) {
+                edits.add( new Edit(CHANGED, oldNode, newNode, oldNode.getParent(), newNode.getParent()) );
+            }
+            List<TagNode> matchedTags = new ArrayList<TagNode>();
+            diffChildren(oldNode, newNode, edits, matchedTags);
+            for (int i = matchedTags.size() - 2; i >= 0; i -= 2) {
+                pending.add(matchedTags.get(i + 1));
+                pending.add(matchedTags.get(i));
+            }
+        }
+
+        return edits;
+    }
+
+    /**
+     * Matches children of two corresponding tags, adds the edits of this level and collects pairs
+     * (old, new) of different matched tags, which have to be compared further.
+     */
+    private void diffChildren(TagNode oldParent, TagNode newParent, List<Edit> edits, List<TagNode> matchedTags) {
+        HtmlNode[] oldChildren = getChildNodes(oldParent);
+        HtmlNode[] newChildren = getChildNodes(newParent);
+        int oldLength = oldChildren.length;
+        int newLength = newChildren.length;
+        long[] oldHashes = new long[oldLength];
+        long[] newHashes = new long[newLength];
+        for (int i = 0; i < oldLength; i++) {
+            oldHashes[i] = TagNode.getNodeHash(oldChildren[i]);
+        }
+        for (int i = 0; i < newLength; i++) {
+            newHashes[i] = TagNode.getNodeHash(newChildren[i]);
+        }
+
+        // indexes of the matching children in the other list, -1 if not matched
+        int[] oldMatches = new int[oldLength];
+        int[] newMatches = new int[newLength];
+        Arrays.fill(oldMatches, -1);
+        Arrays.fill(newMatches, -1);
+        // anchored children must not be matched to anything else than their anchor partners
+        boolean[] isOldAnchored = new boolean[oldLength];
+        boolean[] isNewAnchored = new boolean[newLength];
+        matchAnchors(oldChildren, newChildren, oldMatches, newMatches, isOldAnchored, isNewAnchored);
+        matchCommonSubsequence(oldHashes, newHashes, oldMatches, newMatches, isOldAnchored, isNewAnchored);
+        matchInGaps(oldChildren, newChildren, oldMatches, newMatches, isOldAnchored, isNewAnchored);
+
+        int newIndex = 0;
+        for (int oldIndex = 0; oldIndex < oldLength; oldIndex++) {
+            int match = oldMatches[oldIndex];
+            if (match < 0) {
+                edits.add( new Edit(REMOVED, oldChildren[oldIndex], null, oldParent, null) );
+                continue;
+            }
+            // position of the moved anchored tags doesn't change the order of insertions
+            if (match >= newIndex) {
+                for (; newIndex < match; newIndex++) {
+                    if (newMatches[newIndex] < 0) {
+                        edits.add( new Edit(INSERTED, null, newChildren[newIndex], null, newParent) );
+                    }
+                }
+                newIndex = match + 1;
+            }
+            if ( oldHashes[oldIndex] != newHashes[match] ) {
+                if (oldChildren[oldIndex] instanceof TagNode) {
+                    matchedTags.add((TagNode) oldChildren[oldIndex]);
+                    matchedTags.add((TagNode) newChildren[match]);
+                } else {
+                    edits.add( new Edit(CHANGED, oldChildren[oldIndex], newChildren[match], oldParent, newParent) );
+                }
+            }
+        }
+        for (; newIndex < newLength; newIndex++) {
+            if (newMatches[newIndex] < 0) {
+                edits.add( new Edit(INSERTED, null, newChildren[newIndex], null, newParent) );
+            }
+        }
+    }
+
+    /**
+     * Matches tags with the same name and anchor value, if the value is unique in both lists.
+     */
+    private void matchAnchors(HtmlNode[] oldChildren, HtmlNode[] newChildren, int[] oldMatches, int[] newMatches,
+                              boolean[] isOldAnchored, boolean[] isNewAnchored) {
+        if (anchorAttribute == null) {
+            return;
+        }
+        Map<String, Integer> oldAnchors = collectAnchors(oldChildren);
+        if (oldAnchors.isEmpty()) {
+            return;
+        }
+        Map<String, Integer> newAnchors = collectAnchors(newChildren);
+        for (Map.Entry<String, Integer> entry: oldAnchors.entrySet()) {
+            Integer oldIndex = entry.getValue();
+            Integer newIndex = newAnchors.get(entry.getKey());
+            if (oldIndex != null && newIndex != null) {
+                oldMatches[oldIndex] = newIndex;
+                newMatches[newIndex] = oldIndex;
+                isOldAnchored[oldIndex] = true;
+                isNewAnchored[newIndex] = true;
+            }
+        }
+    }
+
+    /**
+     * @return Map of anchors to the indexes of their tags, where repeated anchors map to null.
+     */
+    private Map<String, Integer> collectAnchors(HtmlNode[] children) {
+        Map<String, Integer> anchors = new HashMap<String, Integer>();
+        for (int i = 0; i < children.length; i++) {
+            if (children[i] instanceof TagNode) {
+                TagNode tagNode = (TagNode) children[i];
+                String value = tagNode.getAttributeByName(anchorAttribute);
+                if (value != null && value.length() > 0) {
+                    String anchor = tagNode.getName() + "#" + value;
+                    anchors.put( anchor, anchors.containsKey(anchor) ? null : Integer.valueOf(i) );
+                }
+            }
+        }
+        return anchors;
+    }
+
+    /**
+     * Matches the longest common subsequence of the children, where anchored children equal only their
+     * anchor partners and the rest equal the children with the same hash.
+     */
+    private void matchCommonSubsequence(long[] oldHashes, long[] newHashes, int[] oldMatches, int[] newMatches,
+                                        boolean[] isOldAnchored, boolean[] isNewAnchored) {
+        int oldStart = 0;
+        int newStart = 0;
+        int oldEnd = oldHashes.length;
+        int newEnd = newHashes.length;
+
+        // common prefix and suffix need no table
+        while ( oldStart < oldEnd && newStart < newEnd &&
+                isEqual(oldStart, newStart, oldHashes, newHashes, oldMatches, isOldAnchored, isNewAnchored) ) {
+            match(oldStart++, newStart++, oldMatches, newMatches);
+        }
+        while ( oldStart < oldEnd && newStart < newEnd &&
+                isEqual(oldEnd - 1, newEnd - 1, oldHashes, newHashes, oldMatches, isOldAnchored, isNewAnchored) ) {
+            match(--oldEnd, --newEnd, oldMatches, newMatches);
+        }
+
+        int rows = oldEnd - oldStart;
+        int columns = newEnd - newStart;
+        if (rows == 0 || columns == 0) {
+            return;
+        }
+
+        if ( (long) rows * columns > MAX_LCS_CELLS ) {
+            // each old child is matched to the first equal new child after the previous match
+            int newIndex = newStart;
+            for (int oldIndex = oldStart; oldIndex < oldEnd && newIndex < newEnd; oldIndex++) {
+                for (int i = newIndex; i < newEnd; i++) {
+                    if ( isEqual(oldIndex, i, oldHashes, newHashes, oldMatches, isOldAnchored, isNewAnchored) ) {
+                        match(oldIndex, i, oldMatches, newMatches);
+                        newIndex = i + 1;
+                        break;
+                    }
+                }
+            }
+            return;
+        }
+
+        // lengths[i * (columns + 1) + j] is length of the common subsequence of old children from
+        // oldStart + i and new children from newStart + j
+        int width = columns + 1;
+        int[] lengths = new int[(rows + 1) * width];
+        for (int i = rows - 1; i >= 0; i--) {
+            for (int j = columns - 1; j >= 0; j--) {
+                int cell = i * width + j;
+                if ( isEqual(oldStart + i, newStart + j, oldHashes, newHashes, oldMatches, isOldAnchored, isNewAnchored) ) {
+                    lengths[cell] = lengths[cell + width + 1] + 1;
+                } else {
+                    lengths[cell] = Math.max(lengths[cell + width], lengths[cell + 1]);
+                }
+            }
+        }
+        int i = 0;
+        int j = 0;
+        while (i < rows && j < columns) {
+            if ( isEqual(oldStart + i, newStart + j, oldHashes, newHashes, oldMatches, isOldAnchored, isNewAnchored) ) {
+                match(oldStart + i, newStart + j, oldMatches, newMatches);
+                i++;
+                j++;
+            } else if ( lengths[(i + 1) * width + j] >= lengths[i * width + j + 1] ) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+    }
+
+    private boolean isEqual(int oldIndex, int newIndex, long[] oldHashes, long[] newHashes, int[] oldMatches,
+                            boolean[] isOldAnchored, boolean[] isNewAnchored) {
+        if (isOldAnchored[oldIndex] || isNewAnchored[newIndex]) {
+            return oldMatches[oldIndex] == newIndex;
+        }
+        return oldHashes[oldIndex] == newHashes[newIndex];
+    }
+
+    private void match(int oldIndex, int newIndex, int[] oldMatches, int[] newMatches) {
+        oldMatches[oldIndex] = newIndex;
+        newMatches[newIndex] = oldIndex;
+    }
+
+    /**
+     * Between every two subsequent matched children, pairs the remaining tags with the same name, text
+     * nodes and comments in order of their appearance.
+     */
+    private void matchInGaps(HtmlNode[] oldChildren, HtmlNode[] newChildren, int[] oldMatches, int[] newMatches,
+                             boolean[] isOldAnchored, boolean[] isNewAnchored) {
+        int oldIndex = 0;
+        int newIndex = 0;
+        while (oldIndex < oldChildren.length) {
+            // anchored children out of order don't delimit the gaps
+            if ( isOldAnchored[oldIndex] && oldMatches[oldIndex] < newIndex ) {
+                oldIndex++;
+                continue;
+            }
+            int oldGapEnd = oldIndex;
+            while ( oldGapEnd < oldChildren.length && (oldMatches[oldGapEnd] < 0 || oldMatches[oldGapEnd] < newIndex) ) {
+                oldGapEnd++;
+            }
+            int newGapEnd = oldGapEnd < oldChildren.length ? oldMatches[oldGapEnd] : newChildren.length;
+
+            int next = newIndex;
+            for (int i = oldIndex; i < oldGapEnd; i++) {
+                if (oldMatches[i] >= 0) {
+                    continue;
+                }
+                for (int j = next; j < newGapEnd; j++) {
+                    if ( newMatches[j] < 0 && !isNewAnchored[j] && isSameKind(oldChildren[i], newChildren[j]) ) {
+                        match(i, j, oldMatches, newMatches);
+                        next = j + 1;
+                        break;
+                    }
+                }
+            }
+
+            oldIndex = oldGapEnd + 1;
+            newIndex = newGapEnd + 1;
+        }
+    }
+
+    private boolean isSameKind(HtmlNode oldNode, HtmlNode newNode) {
+        if (oldNode instanceof TagNode) {
+            return newNode instanceof TagNode &&
+                   isSame( ((TagNode) oldNode).getName(), ((TagNode) newNode).getName() );
+        }
+        return oldNode.getClass() == newNode.getClass();
+    }
+
+    private boolean hasSameProperties(TagNode oldNode, TagNode newNode) {
+        return isSame(oldNode.getName(), newNode.getName()) &&
+               oldNode.getAttributes().equals(newNode.getAttributes()) &&
+               isSame(oldNode.getNamespaceDeclarations(), newNode.getNamespaceDeclarations());
+    }
+
+    private static boolean isSame(Object first, Object second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /**
+     * @return Tag, text and comment children of the node.
+     */
+    private HtmlNode[] getChildNodes(TagNode node) {
+        List children = node.getChildren();
+        List<HtmlNode> nodes = new ArrayList<HtmlNode>(children.size());
+        for (Object child: children) {
+            if (child instanceof HtmlNode) {
+                nodes.add((HtmlNode) child);
+            }
+        }
+        return nodes.toArray(new HtmlNode[nodes.size()]);
+    }
+
+}
@@ -0,0 +1,330 @@
+/*  Copyright (c) 2006-2007, Vladimir Nikic
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+    You can contact Vladimir Nikic by sending e-mail to
+    nikic_vladimir@yahoo.com. Please include the word "HtmlCleaner" in the
+    subject line.
+*/
+
+package org.htmlcleaner;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * <p>
+ *      Compact binary form of the cleaned tree, meant for caching parsed pages on disk. Snapshot
+ *      consists of a table of distinct strings (tag names, attributes, texts) followed by the tree
+ *      structure in document order, where every node refers to the strings by their index. Loading
+ *      is a single sequential pass over the bytes, without any HTML parsing or cleaning.
+ * </p>
+ * <p>
+ *      Layout: magic number and version, number of strings and strings themselves (length in bytes and
+ *      UTF-8 bytes), doctype and position where the content was truncated, then node records. Tag record holds name, attributes, namespace declarations and
+ *      number of children, which follow immediately. Text and comment records hold only the content.
+ *      All numbers are written as variable-length unsigned integers.
+ * </p>
+ */
+public class TagNodeSnapshot {
+
+    private static final int MAGIC = 0x48435331; // "HCS1"
+    private static final int VERSION = 2;
+    // version 1 didn't record truncation of the content, it is still readable
+    private static final int VERSION_WITHOUT_TRUNCATION = 1;
+
+    private static final int TAG_RECORD = 1;
+    private static final int TEXT_RECORD = 2;
+    private static final int COMMENT_RECORD = 3;
+
+    // string index used for null values, other indexes are shifted by one
+    private static final int NULL_STRING = 0;
+
+    private TagNodeSnapshot() {
+    }
+
+    /**
+     * Writes snapshot of the specified tree to the stream. Stream is neither flushed nor closed.
+     * @param rootNode Root of the tree
+     * @param out Output stream
+     * @throws IOException
+     */
+    public static void write(TagNode rootNode, OutputStream out) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        ByteArrayOutputStream structure = new ByteArrayOutputStream();
+
+        DoctypeToken docType = rootNode.getDocType();
+        if (docType != null) {
+            writeInt(structure, 1);
+            writeInt(structure, getStringIndex(strings, docType.getPart1()));
+            writeInt(structure, getStringIndex(strings, docType.getPart2()));
+            writeInt(structure, getStringIndex(strings, docType.getPart3()));
+            writeInt(structure, getStringIndex(strings, docType.getPart4()));
+        } else {
+            writeInt(structure, 0);
+        }
+        writeInt(structure, rootNode.getTruncationOffset() + 1);
+
+        // nodes are written in document order, using explicit stack of the nodes to be written
+        List<Object> pending = new ArrayList<Object>();
+        pending.add(rootNode);
+        while ( !pending.isEmpty() ) {
+            Object item = pending.remove(pending.size() - 1);
+            if (item instanceof TagNode) {
+                TagNode tagNode = (TagNode) item;
+                writeInt(structure, TAG_RECORD);
+                writeInt(structure, getStringIndex(strings, tagNode.getName()));
+                writeMap(structure, strings, tagNode.getAttributes());
+                writeMap(structure, strings, tagNode.getNamespaceDeclarations());
+
+                List children = tagNode.getChildren();
+                int count = 0;
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    Object child = children.get(i);
+                    if (child instanceof TagNode || child instanceof ContentNode || child instanceof CommentNode) {
+                        pending.add(child);
+                        count++;
+                    }
+                }
+                writeInt(structure, count);
+            } else if (item instanceof ContentNode) {
+                writeInt(structure, TEXT_RECORD);
+                writeInt(structure, getStringIndex(strings, item.toString()));
+            } else {
+                writeInt(structure, COMMENT_RECORD);
+                writeInt(structure, getStringIndex(strings, ((CommentNode) item).getContent().toString()));
+            }
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream dataHeader = new DataOutputStream(header);
+        dataHeader.writeInt(MAGIC);
+        writeInt(header, VERSION);
+        writeInt(header, strings.size());
+        for (String s: strings.keySet()) {
+            byte[] bytes = s.getBytes("UTF-8");
+            writeInt(header, bytes.length);
+            header.write(bytes);
+        }
+
+        header.writeTo(out);
+        structure.writeTo(out);
+    }
+
+    /**
+     * Reads the tree from the stream containing the snapshot. Whole stream is read, but not closed.
+     * @param in Input stream
+     * @return Root of the tree
+     * @throws IOException
+     */
+    public static TagNode read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ( (count = in.read(buffer)) >= 0 ) {
+            bytes.write(buffer, 0, count);
+        }
+        return read( ByteBuffer.wrap(bytes.toByteArray()) );
+    }
+
+    /**
+     * Reads the tree from the buffer positioned at the start of the snapshot, for example from
+     * a memory mapped file. Buffer position is moved after the snapshot.
+     * @param buffer Buffer containing the snapshot
+     * @return Root of the tree
+     * @throws IOException If buffer doesn't contain valid snapshot
+     */
+    public static TagNode read(ByteBuffer buffer) throws IOException {
+        try {
+            if ( buffer.getInt() != MAGIC ) {
+                throw new IOException("Not a snapshot of supported version!");
+            }
+            int version = readInt(buffer);
+            if (version != VERSION && version != VERSION_WITHOUT_TRUNCATION) {
+                throw new IOException("Not a snapshot of supported version!");
+            }
+
+            // every string takes at least one byte for its length
+            String[] strings = new String[readCount(buffer, 1) + 1];
+            byte[] bytes = new byte[256];
+            for (int i = 1; i < strings.length; i++) {
+                int length = readCount(buffer, 1);
+                if ( buffer.hasArray() ) {
+                    strings[i] = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, "UTF-8");
+                    buffer.position(buffer.position() + length);
+                } else {
+                    if (length > bytes.length) {
+                        bytes = new byte[Math.max(length, bytes.length * 2)];
+                    }
+                    buffer.get(bytes, 0, length);
+                    strings[i] = new String(bytes, 0, length, "UTF-8");
+                }
+            }
+
+            DoctypeToken docType = null;
+            if (readInt(buffer) != 0) {
+                docType = new DoctypeToken( strings[readInt(buffer)], strings[readInt(buffer)],
+                                            strings[readInt(buffer)], strings[readInt(buffer)] );
+            }
+            int truncationOffset = version == VERSION ? readInt(buffer) - 1 : -1;
+
+            // open tags and the numbers of their children still to be read
+            TagNode rootNode = null;
+            TagNode[] parents = new TagNode[32];
+            int[] remaining = new int[32];
+            int depth = 0;
+            do {
+                int recordType = readInt(buffer);
+                Object node;
+                if (recordType == TAG_RECORD) {
+                    TagNode tagNode = new TagNode( strings[readInt(buffer)] );
+                    Map<String, String> attributes = tagNode.getAttributes();
+                    int attCount = readCount(buffer, 2);
+                    for (int i = 0; i < attCount; i++) {
+                        attributes.put( strings[readInt(buffer)], strings[readInt(buffer)] );
+                    }
+                    int nsCount = readCount(buffer, 2);
+                    for (int i = 0; i < nsCount; i++) {
+                        tagNode.addNamespaceDeclaration( strings[readInt(buffer)], strings[readInt(buffer)] );
+                    }
+                    node = tagNode;
+                } else if (recordType == TEXT_RECORD) {
+                    node = new ContentNode( strings[readInt(buffer)] );
+                } else if (recordType == COMMENT_RECORD) {
+                    node = new CommentNode( strings[readInt(buffer)] );
+                } else {
+                    throw new IOException("Invalid snapshot record!");
+                }
+
+                if (rootNode == null) {
+                    if ( !(node instanceof TagNode) ) {
+                        throw new IOException("Invalid snapshot root!");
+                    }
+                    rootNode = (TagNode) node;
+                } else {
+                    parents[depth - 1].addChild(node);
+                    remaining[depth - 1]--;
+                }
+
+                if (node instanceof TagNode) {
+                    if (depth == parents.length) {
+                        TagNode[] newParents = new TagNode[depth * 2];
+                        int[] newRemaining = new int[depth * 2];
+                        System.arraycopy(parents, 0, newParents, 0, depth);
+                        System.arraycopy(remaining, 0, newRemaining, 0, depth);
+                        parents = newParents;
+                        remaining = newRemaining;
+                    }
+                    parents[depth] = (TagNode) node;
+                    // every child record takes at least its type and one string index
+                    remaining[depth] = readCount(buffer, 2);
+                    depth++;
+                }
+
+                // closes all the nodes whose children have been read
+                while ( depth > 0 && remaining[depth - 1] == 0 ) {
+                    parents[--depth] = null;
+                }
+            } while (depth > 0);
+
+            rootNode.setDocType(docType);
+            rootNode.setTruncationOffset(truncationOffset);
+            return rootNode;
+        } catch (RuntimeException e) {
+            // buffer underflow, or string index out of the table
+            IOException ioException = new IOException("Invalid snapshot!");
+            ioException.initCause(e);
+            throw ioException;
+        }
+    }
+
+    private static int getStringIndex(Map<String, Integer> strings, String s) {
+        if (s == null) {
+            return NULL_STRING;
+        }
+        Integer index = strings.get(s);
+        if (index == null) {
+            index = strings.size() + 1;
+            strings.put(s, index);
+        }
+        return index;
+    }
+
+    private static void writeMap(OutputStream out, Map<String, Integer> strings, Map<String, String> map) throws IOException {
+        if (map == null) {
+            writeInt(out, 0);
+        } else {
+            writeInt(out, map.size());
+            for (Map.Entry<String, String> entry: map.entrySet()) {
+                writeInt(out, getStringIndex(strings, entry.getKey()));
+                writeInt(out, getStringIndex(strings, entry.getValue()));
+            }
+        }
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        while ( (value & ~0x7F) != 0 ) {
+            out.write( (value & 0x7F) | 0x80 );
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Reads number of the items which follow, checking it against the bytes left in the buffer before
+     * anything is allocated for them, so that corrupted count fails with IOException.
+     * @param buffer Buffer containing the snapshot
+     * @param itemSize Smallest number of bytes taken by one item
+     * @return Number of items
+     * @throws IOException If there are not enough bytes left for that many items
+     */
+    private static int readCount(ByteBuffer buffer, int itemSize) throws IOException {
+        int count = readInt(buffer);
+        if ( count < 0 || count > buffer.remaining() / itemSize ) {
+            throw new IOException("Invalid snapshot count!");
+        }
+        return count;
+    }
+
+    private static int readInt(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ( (b & 0x80) == 0 ) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid snapshot number!");
+    }
+
+}
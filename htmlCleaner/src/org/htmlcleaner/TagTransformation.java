@@ -37,6 +37,7 @@
 
 package org.htmlcleaner;
 
+import java.util.Iterator;
 import java.util.Map;
 import java.util.LinkedHashMap;
 
@@ -45,10 +46,21 @@ import java.util.LinkedHashMap;
  */
 public class TagTransformation {
 
+    /**
+     * Attribute transformations prepared for applying - names of the destination attributes
+     * with their compiled templates (null for the removed attributes).
+     */
+    private static class CompiledAttributes {
+        private String[] names;
+        private String[][] templates;
+    }
+
     private String sourceTag;
     private String destTag;
     private boolean preserveSourceAttributes;
     private Map attributeTransformations;
+    // created on the first use after any change of the attribute transformations
+    private volatile CompiledAttributes compiledAttributes;
 
     /**
      * Creates new tag transformation from source tag to target tag specifying whether
@@ -100,6 +112,7 @@ public class TagTransformation {
             attributeTransformations = new LinkedHashMap();
         }
         attributeTransformations.put(targetAttName.toLowerCase(), transformationDesc);
+        compiledAttributes = null;
     }
 
     /**
@@ -130,5 +143,48 @@ public class TagTransformation {
     Map getAttributeTransformations() {
         return attributeTransformations;
     }
+
+    /**
+     * Applies attribute transformations, with templates evaluated against the source attributes.
+     * @param sourceAttributes Attributes of the source tag
+     * @param destAttributes Attributes to be changed
+     */
+    void transformAttributes(Map<String, String> sourceAttributes, Map<String, String> destAttributes) {
+        CompiledAttributes compiled = getCompiledAttributes();
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < compiled.names.length; i++) {
+            String[] template = compiled.templates[i];
+            if (template == null) {
+                destAttributes.remove(compiled.names[i]);
+            } else {
+                value.setLength(0);
+                Utils.appendTemplate(template, sourceAttributes, value);
+                destAttributes.put( compiled.names[i], value.toString() );
+            }
+        }
+    }
+
+    private CompiledAttributes getCompiledAttributes() {
+        CompiledAttributes compiled = compiledAttributes;
+        if (compiled == null) {
+            compiled = new CompiledAttributes();
+            int size = attributeTransformations == null ? 0 : attributeTransformations.size();
+            compiled.names = new String[size];
+            compiled.templates = new String[size][];
+            if (size > 0) {
+                int index = 0;
+                Iterator iterator = attributeTransformations.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry entry = (Map.Entry) iterator.next();
+                    String template = (String) entry.getValue();
+                    compiled.names[index] = (String) entry.getKey();
+                    compiled.templates[index] = template == null ? null : Utils.compileTemplate(template);
+                    index++;
+                }
+            }
+            compiledAttributes = compiled;
+        }
+        return compiled;
+    }
     
 }
\ No newline at end of file
@@ -40,7 +40,9 @@ package org.htmlcleaner;
 import java.io.*;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.regex.Matcher;
@@ -51,6 +53,9 @@ import java.util.regex.Pattern;
  */
 public class Utils {
 
+    // number of bytes at the beginning of html searched for META tag with charset
+    static final int CHARSET_SNIFF_LENGTH = 2048;
+
     public static String VAR_START = "${";
     public static String VAR_END = "}";
 
@@ -119,10 +124,52 @@ public class Utils {
 
     public static String getCharsetFromContent(URL url) throws IOException {
         InputStream stream = url.openStream();
-        byte chunk[] = new byte[2048];
-        int bytesRead = stream.read(chunk);
-        if (bytesRead > 0) {
-            String startContent = new String(chunk);
+        try {
+            byte chunk[] = new byte[CHARSET_SNIFF_LENGTH];
+            int bytesRead = stream.read(chunk);
+            return getCharsetFromContent(chunk, bytesRead);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Reads the beginning of the stream and looks for the charset in META tags, then resets the stream,
+     * so that the same bytes are read again by the caller. Stream must support mark and reset.
+     * @param stream
+     * @return Charset specified in META tag, or null if there is no such tag or charset is not supported.
+     * @throws IOException
+     */
+    public static String getCharsetFromContent(InputStream stream) throws IOException {
+        byte chunk[] = new byte[CHARSET_SNIFF_LENGTH];
+        stream.mark(CHARSET_SNIFF_LENGTH);
+        int bytesRead = 0;
+        try {
+            int count = 0;
+            while ( bytesRead < chunk.length && (count = stream.read(chunk, bytesRead, chunk.length - bytesRead)) > 0 ) {
+                bytesRead += count;
+            }
+        } finally {
+            stream.reset();
+        }
+        return getCharsetFromContent(chunk, bytesRead);
+    }
+
+    /**
+     * @param chunk Beginning of the html content
+     * @param length Number of bytes in the chunk
+     * @return Charset specified in META tag, or null if there is no such tag or charset is not supported.
+     */
+    public static String getCharsetFromContent(byte chunk[], int length) {
+        if (length > 0) {
+            String startContent;
+            try {
+                // tag itself is ascii, so any single byte charset is fine here
+                startContent = new String(chunk, 0, length, "ISO-8859-1");
+            } catch (UnsupportedEncodingException e) {
+                // should never happen, every java platform supports ISO-8859-1
+                throw new HtmlCleanerException(e);
+            }
             String pattern = "\\<meta\\s*http-equiv=[\\\"\\']content-type[\\\"\\']\\s*content\\s*=\\s*[\"']text/html\\s*;\\s*charset=([a-z\\d\\-]*)[\\\"\\'\\>]";
             Matcher matcher = Pattern.compile(pattern,  Pattern.CASE_INSENSITIVE).matcher(startContent);
             if (matcher.find()) {
@@ -171,97 +218,265 @@ public class Utils {
      * @param isDomCreation Tells if escaped content will be part of the DOM
      */
     public static String escapeXml(String s, CleanerProperties props, boolean isDomCreation) {
-        boolean advanced = props.isAdvancedXmlEscape();
+        if ( s == null || !isEscapingNeeded(s, 0, s.length()) ) {
+            return s;
+        }
+
+        StringBuilder result = new StringBuilder(s.length() + 16);
+        try {
+            escape(s, 0, s.length(), props, isDomCreation, false, result);
+        } catch (IOException e) {
+            // should never happen because writing to StringBuilder
+            throw new HtmlCleanerException(e);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Escapes specified part of XML content and writes the result to the output without creating
+     * intermediate strings. Escaping rules are the same as for escapeXml(String, CleanerProperties, boolean).
+     * @param s Content to be escaped
+     * @param start Index of the first character to be escaped
+     * @param end Index after the last character to be escaped
+     * @param props Cleaner properties gover affect escaping behaviour
+     * @param isDomCreation Tells if escaped content will be part of the DOM
+     * @param out Output, for example Writer or StringBuilder
+     * @throws IOException
+     */
+    public static void escapeXml(CharSequence s, int start, int end, CleanerProperties props, boolean isDomCreation, Appendable out) throws IOException {
+        if ( isEscapingNeeded(s, start, end) ) {
+            escape(s, start, end, props, isDomCreation, false, out);
+        } else {
+            append(out, s, start, end);
+        }
+    }
+
+    /**
+     * @return Whether the class, or any of its superclasses below the base class, declares the method,
+     * i.e. whether it overrides the base class implementation.
+     */
+    static boolean isOverridden(Class<?> cls, Class<?> base, String methodName, Class<?>... parameterTypes) {
+        for (Class<?> c = cls; c != null && c != base; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod(methodName, parameterTypes);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // not declared here, try the superclass
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Whether specified part of the content contains ampersand or reserved XML character,
+     * i.e. whether escaping can change it at all.
+     */
+    static boolean isEscapingNeeded(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char ch = s.charAt(i);
+            if ( ch == '&' || ch == '<' || ch == '>' || ch == '\"' || ch == '\'' ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Escaping engine shared by XML escaping and HTML serializers. In HTML mode numeric
+     * references are always processed, unknown ampersands and reserved characters are kept
+     * as they are, and special entities are either translated or kept escaped.
+     */
+    static void escape(CharSequence s, int start, int end, CleanerProperties props, boolean isDomCreation, boolean isHtml, Appendable out) throws IOException {
+        boolean advanced = isHtml || props.isAdvancedXmlEscape();
         boolean recognizeUnicodeChars = props.isRecognizeUnicodeChars();
         boolean translateSpecialEntities = props.isTranslateSpecialEntities();
-
-        if (s != null) {
-    		int len = s.length();
-    		StringBuilder result = new StringBuilder(len);
-    		
-    		for (int i = 0; i < len; i++) {
-    			char ch = s.charAt(i);
-    			
-    			if (ch == '&') {
-    				if ( (advanced || recognizeUnicodeChars) && (i < len-2) && (s.charAt(i+1) == '#') ) {
-                        boolean isHex = Character.toLowerCase(s.charAt(i+2)) == 'x';
-                        int charIndex = i + (isHex ? 3 : 2);
-                        int radix = isHex ? 16 : 10;
-                        String unicode = "";
-                        while (charIndex < len) {
-                            char currCh = s.charAt(charIndex);
-                            if (currCh == ';') {
-                                break;
-                            } else if (isValidInt(unicode + currCh, radix)) {
-                                unicode += currCh;
-                                charIndex++;
+        boolean transResCharsToNCR = props.transResCharsToNCR;
+
+        int plainStart = start;
+        for (int i = start; i < end; i++) {
+            char ch = s.charAt(i);
+
+            if (ch == '&') {
+                append(out, s, plainStart, i);
+                if ( (isHtml || advanced || recognizeUnicodeChars) && (i < end - 2) && (s.charAt(i + 1) == '#') ) {
+                    boolean isHex = Character.toLowerCase(s.charAt(i + 2)) == 'x';
+                    int radix = isHex ? 16 : 10;
+                    int digitsStart = i + (isHex ? 3 : 2);
+                    int digitsEnd = numericReferenceEnd(s, digitsStart, end, radix);
+
+                    if (digitsEnd > digitsStart) {
+                        char unicodeChar = (char) numericReferenceValue(s, digitsStart, digitsEnd, radix);
+                        if ( !isValidXmlChar(unicodeChar) ) {
+                            // skipped
+                        } else if ( !isReservedXmlChar(unicodeChar) && recognizeUnicodeChars ) {
+                            out.append(unicodeChar);
+                        } else {
+                            out.append("&#");
+                            append(out, s, digitsStart, digitsEnd);
+                            out.append(';');
+                        }
+                        // continue after terminating semicolon, or at the first character that is not a digit
+                        if (digitsEnd == end) {
+                            i = end;
+                        } else {
+                            i = s.charAt(digitsEnd) == ';' ? digitsEnd : digitsEnd - 1;
+                        }
+                    } else if (isHtml) {
+                        appendAmpersand(out, transResCharsToNCR, true);
+                    } else {
+                        out.append("&amp;");
+                    }
+                } else {
+                    SpecialEntity entity = (isHtml || translateSpecialEntities) ? findSpecialEntity(s, i, end) : null;
+                    if (entity != null) {
+                        if (isHtml && !translateSpecialEntities) {
+                            out.append('&').append( entity.getKey() ).append(';');
+                        } else if ( props.isTransSpecialEntitiesToNCR() ) {
+                            appendNCR(out, entity.getIntCode());
+                        } else {
+                            out.append( entity.getCharacter() );
+                        }
+                        i += entity.getKey().length() + 1;
+                    } else if (advanced) {
+                        int reservedIndex = findReservedSequence(s, i, end);
+                        if (reservedIndex >= 0) {
+                            char reservedChar = RESERVED_CHARS[reservedIndex];
+                            if (isDomCreation) {
+                                out.append(reservedChar);
+                            } else if (transResCharsToNCR) {
+                                appendNCR(out, reservedChar);
                             } else {
-                                charIndex--;
-                                break;
+                                out.append( RESERVED_SEQUENCES[reservedIndex] );
                             }
+                            i += RESERVED_SEQUENCES[reservedIndex].length() - 1;
+                        } else if (isDomCreation) {
+                            out.append('&');
+                        } else {
+                            appendAmpersand(out, transResCharsToNCR, isHtml);
                         }
+                    } else {
+                        out.append("&amp;");
+                    }
+                }
+                plainStart = i + 1;
+            } else if ( isReservedXmlChar(ch) ) {
+                append(out, s, plainStart, i);
+                if (transResCharsToNCR) {
+                    appendNCR(out, ch);
+                } else if (isHtml || isDomCreation) {
+                    out.append(ch);
+                } else {
+                    out.append( RESERVED_XML_CHARS.get(ch) );
+                }
+                plainStart = i + 1;
+            }
+        }
 
-    					if (isValidInt(unicode, radix)) {
-                            char unicodeChar = (char)Integer.parseInt(unicode, radix);
-                            if ( !isValidXmlChar(unicodeChar) ) {
-                                i = charIndex;
-                            } else if ( !isReservedXmlChar(unicodeChar) ) {
-                                result.append( recognizeUnicodeChars ? String.valueOf(unicodeChar) : "&#" + unicode + ";" );
-                                i = charIndex;
-                            } else {
-                                i = charIndex;
-                                result.append("&#" + unicode + ";");
-                            }
-    					} else {
-    						result.append("&amp;");
-    					}
-    				} else {
-    					if (translateSpecialEntities) {
-                            // get minimal following sequence required to recognize some special entitiy
-                            String seq = s.substring(i, i + Math.min(SpecialEntity.getMaxEntityLength() + 2, len - i));
-    						int semiIndex = seq.indexOf(';');
-    						if (semiIndex > 0) {
-    							String entityKey = seq.substring(1, semiIndex);
-    							SpecialEntity entity = SpecialEntity.getEntity(entityKey);
-    							if (entity != null) {
-                                    result.append(props.isTransSpecialEntitiesToNCR() ? entity.getDecimalNCR() : entity.getCharacter());
-    								i += entityKey.length() + 1;
-    								continue;
-    							}
-    						}
-    					}
-    					
-    					if (advanced) {
-                            String sub = s.substring(i);
-                            boolean isReservedSeq = false;
-                            for (Map.Entry<Character, String> entry: RESERVED_XML_CHARS.entrySet()) {
-                                String seq = entry.getValue();
-                                if ( sub.startsWith(seq) ) {
-                                    result.append( isDomCreation ? entry.getKey() : (props.transResCharsToNCR ? "&#" + (int)entry.getKey() + ";" : seq) );
-                                    i += seq.length() - 1;
-                                    isReservedSeq = true;
-                                    break;
-                                }
-                            }
-                            if (!isReservedSeq) {
-                                result.append( isDomCreation ? "&" : (props.transResCharsToNCR ? "&#" + (int)'&' + ";" :  RESERVED_XML_CHARS.get('&')) );
-                            }
-    						continue;
-    					}
-    					
-    					result.append("&amp;");
-    				}
-    			} else if (isReservedXmlChar(ch)) {
-    				result.append( props.transResCharsToNCR ? "&#" + (int)ch + ";" : (isDomCreation ? ch : RESERVED_XML_CHARS.get(ch)) );
-    			} else {
-    				result.append(ch);
-    			}
-    		}
-    		
-    		return result.toString();
-    	}
-    	
-    	return null;
+        if (plainStart < end) {
+            append(out, s, plainStart, end);
+        }
+    }
+
+    private static final char RESERVED_CHARS[] = {'&', '<', '>', '\"', '\''};
+    private static final String RESERVED_SEQUENCES[] = {"&amp;", "&lt;", "&gt;", "&quot;", "&apos;"};
+
+    /**
+     * @return Index in RESERVED_SEQUENCES of the sequence found at specified position, or -1 if there is none.
+     */
+    private static int findReservedSequence(CharSequence s, int index, int end) {
+        for (int i = 0; i < RESERVED_SEQUENCES.length; i++) {
+            if ( regionMatches(s, index, end, RESERVED_SEQUENCES[i]) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(CharSequence s, int index, int end, String value) {
+        int len = value.length();
+        if (index + len > end) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if ( s.charAt(index + i) != value.charAt(i) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds special entity whose reference starts at specified ampersand position.
+     */
+    private static SpecialEntity findSpecialEntity(CharSequence s, int ampIndex, int end) {
+        return SpecialEntity.matchEntity(s, ampIndex + 1, end);
+    }
+
+    /**
+     * @return Index after the digits of numeric character reference starting at specified index.
+     * Digits are taken while the value fits into int.
+     */
+    private static int numericReferenceEnd(CharSequence s, int index, int end, int radix) {
+        long value = 0;
+        while (index < end) {
+            int digit = Character.digit(s.charAt(index), radix);
+            if (digit < 0) {
+                break;
+            }
+            value = value * radix + digit;
+            if (value > Integer.MAX_VALUE) {
+                break;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    private static int numericReferenceValue(CharSequence s, int start, int end, int radix) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * radix + Character.digit(s.charAt(i), radix);
+        }
+        return value;
+    }
+
+    private static void appendAmpersand(Appendable out, boolean transResCharsToNCR, boolean asIs) throws IOException {
+        if (transResCharsToNCR) {
+            appendNCR(out, '&');
+        } else {
+            out.append(asIs ? "&" : "&amp;");
+        }
+    }
+
+    /**
+     * Appends decimal numeric character reference for specified code.
+     */
+    private static void appendNCR(Appendable out, int code) throws IOException {
+        out.append("&#");
+        int divisor = 1;
+        while (code / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            out.append( (char) ('0' + (code / divisor) % 10) );
+            divisor /= 10;
+        }
+        out.append(';');
+    }
+
+    /**
+     * Appends part of the character sequence, avoiding copies for the common output types.
+     */
+    static void append(Appendable out, CharSequence s, int start, int end) throws IOException {
+        if (start < end) {
+            if (out instanceof Writer && s instanceof String) {
+                ((Writer) out).write((String) s, start, end - start);
+            } else if (out instanceof StringBuilder) {
+                ((StringBuilder) out).append(s, start, end);
+            } else {
+                out.append(s, start, end);
+            }
+        }
     }
 
     /**
@@ -334,26 +549,61 @@ public class Utils {
         }
 
         StringBuilder result = new StringBuilder();
+        appendTemplate( compileTemplate(template), variables, result );
+        return result.toString();
+    }
+
+    /**
+     * Splits the template into segments, so that it can be evaluated many times without
+     * searching for variables again. Segments at even positions are literal text, at odd
+     * positions lower-case names of the variables.
+     * @param template Template string
+     * @return Segments of the template
+     */
+    static String[] compileTemplate(String template) {
+        List<String> segments = new ArrayList<String>();
+        StringBuilder literal = new StringBuilder();
 
         int startIndex = template.indexOf(VAR_START);
         int endIndex = -1;
 
         while (startIndex >= 0 && startIndex < template.length()) {
-        	result.append( template.substring(endIndex + 1, startIndex) );
+            literal.append( template.substring(endIndex + 1, startIndex) );
         	endIndex = template.indexOf(VAR_END, startIndex);
 
         	if (endIndex > startIndex) {
         		String varName = template.substring(startIndex + VAR_START.length(), endIndex);
-                Object resultObj = variables != null ? variables.get(varName.toLowerCase()) : "";
-                result.append( resultObj == null ? "" : resultObj.toString() );
+                segments.add( literal.toString() );
+                segments.add( varName.toLowerCase() );
+                literal.setLength(0);
         	}
 
         	startIndex = template.indexOf( VAR_START, Math.max(endIndex + VAR_END.length(), startIndex + 1) );
         }
 
-        result.append( template.substring(endIndex + 1) );
+        literal.append( template.substring(endIndex + 1) );
+        segments.add( literal.toString() );
 
-        return result.toString();
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    /**
+     * Appends the template compiled by compileTemplate(), evaluated for specified map of variables.
+     * @param segments Compiled template
+     * @param variables Map of variables (can be null)
+     * @param result Builder to append to
+     */
+    static void appendTemplate(String[] segments, Map variables, StringBuilder result) {
+        for (int i = 0; i < segments.length; i++) {
+            if (i % 2 == 0) {
+                result.append(segments[i]);
+            } else if (variables != null) {
+                Object resultObj = variables.get(segments[i]);
+                if (resultObj != null) {
+                    result.append( resultObj.toString() );
+                }
+            }
+        }
     }
 
     public static String[] tokenize(String s, String delimiters) {
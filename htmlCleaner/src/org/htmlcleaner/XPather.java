@@ -59,14 +59,86 @@ import java.util.*;
  */
 public class XPather {
 
+    // profiles of evaluated expressions by expression, collected only while profiling is enabled
+    private static volatile boolean profilingEnabled = false;
+    private static final Map<String, XPatherProfile> profiles = new HashMap<String, XPatherProfile>();
+
+    private String expression;
+
     // array of basic tokens of which XPath expression is made
     private String tokenArray[];
 
+    // positional predicates recognized in the expression, by index of their opening bracket
+    private PositionRange positionRanges[];
+
+    /**
+     * State of a single call to evaluateAgainstNode(), passed along the evaluation so that
+     * concurrent or nested evaluations of the same expression do not share it.
+     */
+    private static final class Evaluation {
+        // nodes whose children or attributes were looked through
+        int visitedNodes;
+    }
+
+    /**
+     * Predicate depending only on position of the node, like [3], [last()], [position() > 1] or
+     * [position() < last()]. It selects a range of the nodes without evaluating anything per node.
+     */
+    private static class PositionRange {
+        private int closingIndex;
+        private String operator;
+        private double value;
+        private boolean isLastRelative;
+
+        private PositionRange(int closingIndex, String operator, double value, boolean isLastRelative) {
+            this.closingIndex = closingIndex;
+            this.operator = operator;
+            this.value = value;
+            this.isLastRelative = isLastRelative;
+        }
+
+        private Collection select(Collection source) {
+            int size = source.size();
+            double bound = isLastRelative ? size : value;
+            int from = 1;
+            int to = size;
+            if ( "=".equals(operator) ) {
+                if (bound == Math.floor(bound)) {
+                    from = Math.max(from, (int) bound);
+                    to = Math.min(to, (int) bound);
+                } else {
+                    to = 0;
+                }
+            } else if ( ">".equals(operator) ) {
+                from = Math.max( from, (int) Math.min(Math.floor(bound) + 1, size + 1) );
+            } else if ( ">=".equals(operator) ) {
+                from = Math.max( from, (int) Math.min(Math.ceil(bound), size + 1) );
+            } else if ( "<".equals(operator) ) {
+                to = Math.min( to, (int) Math.max(Math.ceil(bound) - 1, 0) );
+            } else if ( "<=".equals(operator) ) {
+                to = Math.min( to, (int) Math.max(Math.floor(bound), 0) );
+            }
+
+            ArrayList result = new ArrayList( Math.max(to - from + 1, 0) );
+            if (from <= to) {
+                Iterator iterator = source.iterator();
+                for (int i = 1; i <= to; i++) {
+                    Object curr = iterator.next();
+                    if (i >= from) {
+                        result.add(curr);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
     /**
      * Constructor - creates XPather instance with specified XPath expression.
      * @param expression
      */
     public XPather(String expression) {
+        this.expression = expression;
         StringTokenizer tokenizer = new StringTokenizer(expression, "/()[]\"'=<>", true);
         int tokenCount = tokenizer.countTokens();
         tokenArray = new String[tokenCount];
@@ -78,6 +150,102 @@ public class XPather {
         while (tokenizer.hasMoreTokens()) {
             tokenArray[index++] = tokenizer.nextToken();
         }
+
+        compilePositionRanges();
+    }
+
+    /**
+     * Finds predicates depending only on the node position, which are then evaluated as the range
+     * of positions instead of being evaluated for each node.
+     */
+    private void compilePositionRanges() {
+        for (int i = 0; i < tokenArray.length; i++) {
+            if ( "[".equals(tokenArray[i]) ) {
+                int closingIndex = findClosingIndex(i, tokenArray.length - 1);
+                PositionRange range = closingIndex > i ? compilePositionRange(i, closingIndex) : null;
+                if (range != null) {
+                    if (positionRanges == null) {
+                        positionRanges = new PositionRange[tokenArray.length];
+                    }
+                    positionRanges[i] = range;
+                }
+            }
+        }
+    }
+
+    private PositionRange compilePositionRange(int openingIndex, int closingIndex) {
+        // [n] selects the node with the same index, only if n is an integer without spaces around
+        if ( closingIndex == openingIndex + 2 && isValidInteger(tokenArray[openingIndex + 1]) ) {
+            return new PositionRange( closingIndex, "=", Integer.parseInt(tokenArray[openingIndex + 1]), false );
+        }
+
+        List<String> tokens = new ArrayList<String>();
+        for (int i = openingIndex + 1; i < closingIndex; i++) {
+            String token = tokenArray[i].trim();
+            if (token.length() > 0) {
+                tokens.add(token);
+            }
+        }
+
+        // [last()] selects the node with index equal to last
+        if ( tokens.size() == 3 && isFunctionTokens(tokens, 0, "last") ) {
+            return new PositionRange(closingIndex, "=", 0, true);
+        }
+
+        // position() compared to the number or last(), on either side
+        int size = tokens.size();
+        boolean isPositionFirst = size >= 3 && isFunctionTokens(tokens, 0, "position");
+        boolean isPositionLast = size >= 3 && isFunctionTokens(tokens, size - 3, "position");
+        if (isPositionFirst == isPositionLast) {
+            return null;
+        }
+        int operatorStart = isPositionFirst ? 3 : 0;
+        int operatorEnd = isPositionFirst ? size : size - 3;
+        String operator = null;
+        int operandStart = -1;
+        for (int i = operatorStart; i < operatorEnd && operator == null; i++) {
+            String token = tokens.get(i);
+            if ( "=".equals(token) || "<".equals(token) || ">".equals(token) ) {
+                boolean isTwoChars = !"=".equals(token) && i + 1 < operatorEnd && "=".equals(tokens.get(i + 1));
+                operator = isTwoChars ? token + "=" : token;
+                if (isPositionFirst) {
+                    if (i != operatorStart) {
+                        return null;
+                    }
+                    operandStart = isTwoChars ? i + 2 : i + 1;
+                } else {
+                    if ( (isTwoChars ? i + 2 : i + 1) != operatorEnd ) {
+                        return null;
+                    }
+                    operandStart = 0;
+                }
+            }
+        }
+        if (operator == null) {
+            return null;
+        }
+        int operandSize = isPositionFirst ? size - operandStart : operatorEnd - operator.length();
+
+        if (!isPositionFirst) {
+            // constant is on the left side, so operator is turned around
+            if ( operator.startsWith("<") ) {
+                operator = ">" + operator.substring(1);
+            } else if ( operator.startsWith(">") ) {
+                operator = "<" + operator.substring(1);
+            }
+        }
+
+        if ( operandSize == 3 && isFunctionTokens(tokens, operandStart, "last") ) {
+            return new PositionRange(closingIndex, operator, 0, true);
+        } else if ( operandSize == 1 && isValidDouble(tokens.get(operandStart)) && !Double.isNaN(Double.parseDouble(tokens.get(operandStart))) ) {
+            return new PositionRange( closingIndex, operator, Double.parseDouble(tokens.get(operandStart)), false );
+        }
+
+        return null;
+    }
+
+    private boolean isFunctionTokens(List<String> tokens, int index, String name) {
+        return name.equals(tokens.get(index)) && "(".equals(tokens.get(index + 1)) && ")".equals(tokens.get(index + 2));
     }
 
     /**
@@ -90,7 +258,16 @@ public class XPather {
             throw new XPatherException("Cannot evaluate XPath expression against null value!");
         }
 
-        Collection collectionResult = evaluateAgainst(singleton(node), 0, tokenArray.length - 1, false, 1, 0, false, null);
+        boolean isProfiled = profilingEnabled;
+        long startTime = isProfiled ? System.nanoTime() : 0;
+        Evaluation evaluation = new Evaluation();
+
+        Collection collectionResult = evaluateAgainst(evaluation, singleton(node), 0, tokenArray.length - 1, false, 1, 0, false, null);
+
+        if (isProfiled) {
+            getProfile(expression).addCall( System.nanoTime() - startTime, evaluation.visitedNodes, collectionResult.size() );
+        }
+
         Object[] array = new Object[collectionResult.size()];
 
         Iterator iterator = collectionResult.iterator();
@@ -102,11 +279,195 @@ public class XPather {
         return array;
     }
 
+    /**
+     * Turns profiling of all XPath evaluations on or off. While it is on, call count, time, visited nodes
+     * and result sizes are collected for each expression (see getProfiles()). Collected profiles are kept
+     * when profiling is turned off.
+     * @param enabled
+     */
+    public static void setProfilingEnabled(boolean enabled) {
+        profilingEnabled = enabled;
+    }
+
+    public static boolean isProfilingEnabled() {
+        return profilingEnabled;
+    }
+
+    private static XPatherProfile getProfile(String expression) {
+        synchronized (profiles) {
+            XPatherProfile profile = profiles.get(expression);
+            if (profile == null) {
+                profile = new XPatherProfile(expression);
+                profiles.put(expression, profile);
+            }
+            return profile;
+        }
+    }
+
+    /**
+     * @return Profiles of all the expressions evaluated while profiling was enabled, the most
+     * time consuming first.
+     */
+    public static List<XPatherProfile> getProfiles() {
+        List<XPatherProfile> current;
+        synchronized (profiles) {
+            current = new ArrayList<XPatherProfile>( profiles.values() );
+        }
+
+        // total times keep growing while other threads evaluate, so the sort works on
+        // values read once up front instead of asking the profiles on every comparison
+        final int size = current.size();
+        final long totalTimes[] = new long[size];
+        Integer order[] = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            totalTimes[i] = current.get(i).getTotalTime();
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                long t1 = totalTimes[i1.intValue()];
+                long t2 = totalTimes[i2.intValue()];
+                return t1 > t2 ? -1 : (t1 < t2 ? 1 : 0);
+            }
+        });
+
+        List<XPatherProfile> result = new ArrayList<XPatherProfile>(size);
+        for (int i = 0; i < size; i++) {
+            result.add( current.get(order[i].intValue()) );
+        }
+        return result;
+    }
+
+    /**
+     * Removes all collected profiles.
+     */
+    public static void resetProfiles() {
+        synchronized (profiles) {
+            profiles.clear();
+        }
+    }
+
+    /**
+     * @return Collected profiles as text, one expression per line, the most time consuming first.
+     */
+    public static String dumpProfiles() {
+        StringBuilder result = new StringBuilder();
+        for (XPatherProfile profile: getProfiles()) {
+            result.append(profile).append('\n');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Describes how the expression is evaluated - steps, name tests, predicates, functions and
+     * constants, one per line and indented by nesting. Steps searching all the descendants of the
+     * context nodes are marked, since they look through whole subtrees.
+     * @return Textual plan of the evaluation
+     */
+    public String explain() {
+        StringBuilder result = new StringBuilder();
+        result.append("expression: ").append(expression).append('\n');
+        explain(0, tokenArray.length - 1, 1, false, result);
+        return result.toString();
+    }
+
+    private void explain(int from, int to, int depth, boolean isFilterContext, StringBuilder result) {
+        while (from >= 0 && to < tokenArray.length && from <= to) {
+            if ("".equals(tokenArray[from].trim())) {
+                from++;
+            } else if (isToken("(", from)) {
+                int closingBracket = findClosingIndex(from, to);
+                if (closingBracket <= 0) {
+                    explainLine("syntax error at '('", depth, result);
+                    return;
+                }
+                explainLine("group", depth, result);
+                explain(from + 1, closingBracket - 1, depth + 1, isFilterContext, result);
+                from = closingBracket + 1;
+            } else if (isToken("[", from)) {
+                int closingBracket = findClosingIndex(from, to);
+                if (closingBracket <= 0) {
+                    explainLine("syntax error at '['", depth, result);
+                    return;
+                }
+                if ( positionRanges != null && positionRanges[from] != null ) {
+                    PositionRange range = positionRanges[from];
+                    explainLine( "positional predicate, selects range: position() " + range.operator + " " +
+                                 (range.isLastRelative ? "last()" : String.valueOf(range.value)), depth, result );
+                } else {
+                    explainLine("predicate, evaluated for each node", depth, result);
+                    explain(from + 1, closingBracket - 1, depth + 1, true, result);
+                }
+                from = closingBracket + 1;
+            } else if (isToken("\"", from) || isToken("'", from)) {
+                int closingQuote = findClosingIndex(from, to);
+                if (closingQuote <= from) {
+                    explainLine("syntax error at quote", depth, result);
+                    return;
+                }
+                explainLine("string: '" + flatten(from + 1, closingQuote - 1) + "'", depth, result);
+                from = closingQuote + 1;
+            } else if ( (isToken("=", from) || isToken("<", from) || isToken(">", from)) && isFilterContext ) {
+                boolean isTwoChars = isToken("=", from + 1) && (isToken("<", from) || isToken(">", from));
+                String operator = isTwoChars ? tokenArray[from] + tokenArray[from + 1] : tokenArray[from];
+                explainLine("compare " + operator + " with", depth, result);
+                explain(isTwoChars ? from + 2 : from + 1, to, depth + 1, isFilterContext, result);
+                return;
+            } else if (isToken("/", from)) {
+                boolean goRecursive = isToken("/", from + 1);
+                if (goRecursive) {
+                    from++;
+                }
+                if (from >= to) {
+                    explainLine("syntax error at '/'", depth, result);
+                    return;
+                }
+                int toIndex = findClosingIndex(from, to) - 1;
+                if (toIndex <= from) {
+                    toIndex = to;
+                }
+                explainLine(goRecursive ? "descendant step - scans whole subtrees" : "child step", depth, result);
+                explain(from + 1, toIndex, depth + 1, isFilterContext, result);
+                from = toIndex + 1;
+            } else if (isFunctionCall(from, to)) {
+                int closingBracketIndex = findClosingIndex(from + 1, to);
+                explainLine("function " + tokenArray[from].trim() + "()", depth, result);
+                if (closingBracketIndex > from + 2) {
+                    explain(from + 2, closingBracketIndex - 1, depth + 1, isFilterContext, result);
+                }
+                from = closingBracketIndex + 1;
+            } else if ( isValidInteger(tokenArray[from]) || isValidDouble(tokenArray[from]) ) {
+                explainLine("number: " + tokenArray[from].trim(), depth, result);
+                from++;
+            } else {
+                String name = tokenArray[from].trim();
+                if (isAtt(name)) {
+                    explainLine("attribute: " + name, depth, result);
+                } else if ( ".".equals(name) ) {
+                    explainLine("self", depth, result);
+                } else if ( "..".equals(name) ) {
+                    explainLine("parent", depth, result);
+                } else {
+                    explainLine("name test: " + name, depth, result);
+                }
+                from++;
+            }
+        }
+    }
+
+    private void explainLine(String line, int depth, StringBuilder result) {
+        for (int i = 0; i < depth; i++) {
+            result.append("  ");
+        }
+        result.append(line).append('\n');
+    }
+
     private void throwStandardException() throws XPatherException {
         throw new XPatherException();
     }
 
-    private Collection evaluateAgainst(Collection object,
+    private Collection evaluateAgainst(Evaluation evaluation,
+                                       Collection object,
                                        int from,
                                        int to,
                                        boolean isRecursive,
@@ -116,20 +477,23 @@ public class XPather {
                                        Collection filterSource) throws XPatherException {
         if (from >= 0 && to < tokenArray.length && from <= to) {
             if ("".equals(tokenArray[from].trim())) {
-                return evaluateAgainst(object, from + 1, to, isRecursive, position, last, isFilterContext, filterSource); 
+                return evaluateAgainst(evaluation, object, from + 1, to, isRecursive, position, last, isFilterContext, filterSource); 
             } else if (isToken("(", from)) {
                 int closingBracket = findClosingIndex(from, to);
                 if (closingBracket > 0) {
-                    Collection value = evaluateAgainst(object, from + 1, closingBracket - 1, false, position, last, isFilterContext, filterSource);
-                    return evaluateAgainst(value, closingBracket + 1, to, false, position, last, isFilterContext, filterSource);
+                    Collection value = evaluateAgainst(evaluation, object, from + 1, closingBracket - 1, false, position, last, isFilterContext, filterSource);
+                    return evaluateAgainst(evaluation, value, closingBracket + 1, to, false, position, last, isFilterContext, filterSource);
                 } else {
                     throwStandardException();
                 }
             } else if (isToken("[", from)) {
                 int closingBracket = findClosingIndex(from, to);
                 if (closingBracket > 0 && object instanceof Collection) {
-                    Collection value = filterByCondition(object, from + 1, closingBracket - 1);
-                    return evaluateAgainst(value, closingBracket + 1, to, false, position, last, isFilterContext, filterSource);
+                    PositionRange range = positionRanges != null ? positionRanges[from] : null;
+                    Collection value = range != null && range.closingIndex == closingBracket ?
+                                       range.select(object) :
+                                       filterByCondition(evaluation, object, from + 1, closingBracket - 1);
+                    return evaluateAgainst(evaluation, value, closingBracket + 1, to, false, position, last, isFilterContext, filterSource);
                 } else {
                     throwStandardException();
                 }
@@ -137,17 +501,17 @@ public class XPather {
                 int closingQuote = findClosingIndex(from, to);
                 if (closingQuote > from) {
                     Collection value = singleton( flatten(from + 1, closingQuote - 1) );
-                    return evaluateAgainst(value, closingQuote + 1, to, false, position, last, isFilterContext, filterSource);
+                    return evaluateAgainst(evaluation, value, closingQuote + 1, to, false, position, last, isFilterContext, filterSource);
                 } else {
                     throwStandardException();
                 }
             } else if ( (isToken("=", from) || isToken("<", from) || isToken(">", from)) && isFilterContext ) {     // operator inside filter
                 boolean logicValue;
                 if ( isToken("=", from + 1) && (isToken("<", from) || isToken(">", from)) ) {
-                    Collection secondObject = evaluateAgainst(filterSource, from + 2, to, false, position, last, isFilterContext, filterSource);
+                    Collection secondObject = evaluateAgainst(evaluation, filterSource, from + 2, to, false, position, last, isFilterContext, filterSource);
                     logicValue = evaluateLogic(object, secondObject, tokenArray[from] + tokenArray[from + 1]);
                 } else {
-                    Collection secondObject = evaluateAgainst(filterSource, from + 1, to, false, position, last, isFilterContext, filterSource);
+                    Collection secondObject = evaluateAgainst(evaluation, filterSource, from + 1, to, false, position, last, isFilterContext, filterSource);
                     logicValue = evaluateLogic(object, secondObject, tokenArray[from]);
                 }
                 return singleton(new Boolean(logicValue));
@@ -161,23 +525,23 @@ public class XPather {
                     if (toIndex <= from) {
                         toIndex = to;
                     }
-                    Collection value = evaluateAgainst(object, from + 1, toIndex, goRecursive, 1, last, isFilterContext, filterSource);
-                    return evaluateAgainst(value, toIndex + 1, to, false, 1, last, isFilterContext, filterSource);
+                    Collection value = evaluateAgainst(evaluation, object, from + 1, toIndex, goRecursive, 1, last, isFilterContext, filterSource);
+                    return evaluateAgainst(evaluation, value, toIndex + 1, to, false, 1, last, isFilterContext, filterSource);
                 } else {
                     throwStandardException();
                 }
             } else if (isFunctionCall(from, to)) {
                 int closingBracketIndex = findClosingIndex(from + 1, to);
-                Collection funcValue = evaluateFunction(object, from, to, position, last, isFilterContext);
-                return evaluateAgainst(funcValue, closingBracketIndex + 1, to, false, 1, last, isFilterContext, filterSource);
+                Collection funcValue = evaluateFunction(evaluation, object, from, to, position, last, isFilterContext);
+                return evaluateAgainst(evaluation, funcValue, closingBracketIndex + 1, to, false, 1, last, isFilterContext, filterSource);
             } else if (isValidInteger(tokenArray[from])) {
                 Collection value = singleton(new Integer(tokenArray[from]));
-                return evaluateAgainst(value, from + 1, to, false, position, last, isFilterContext, filterSource);
+                return evaluateAgainst(evaluation, value, from + 1, to, false, position, last, isFilterContext, filterSource);
             } else if (isValidDouble(tokenArray[from])) {
                 Collection value = singleton(new Double(tokenArray[from]));
-                return evaluateAgainst(value, from + 1, to, false, position, last, isFilterContext, filterSource);
+                return evaluateAgainst(evaluation, value, from + 1, to, false, position, last, isFilterContext, filterSource);
             } else {
-                return getElementsByName(object, from, to, isRecursive, isFilterContext);
+                return getElementsByName(evaluation, object, from, to, isRecursive, isFilterContext);
             }
         } else {
            return object;
@@ -259,6 +623,7 @@ public class XPather {
     /**
      * Evaluates specified function.
      * Currently, following XPath functions are supported: last, position, text, count, data 
+     * @param evaluation
      * @param source
      * @param from
      * @param to
@@ -266,7 +631,8 @@ public class XPather {
      * @param last
      * @return Collection as the result of evaluation.
      */
-    private Collection evaluateFunction(Collection source,
+    private Collection evaluateFunction(Evaluation evaluation,
+                                        Collection source,
                                         int from,
                                         int to,
                                         int position,
@@ -293,10 +659,10 @@ public class XPather {
                 }
             } else if ( "count".equals(name) ) {
                 Collection argumentEvaluated =
-                        evaluateAgainst(source, from + 2, to - 1, false, position, 0, isFilterContext, null);
+                        evaluateAgainst(evaluation, source, from + 2, to - 1, false, position, 0, isFilterContext, null);
                 result.add( new Integer(argumentEvaluated.size()) );
             } else if ( "data".equals(name) ) {
-                Collection argumentEvaluated = evaluateAgainst(source, from + 2, to - 1, false, position, 0, isFilterContext, null);
+                Collection argumentEvaluated = evaluateAgainst(evaluation, source, from + 2, to - 1, false, position, 0, isFilterContext, null);
                 Iterator it = argumentEvaluated.iterator();
                 while (it.hasNext()) {
                     Object elem = it.next();
@@ -316,11 +682,12 @@ public class XPather {
 
     /**
      * Filter nodes satisfying the condition
+     * @param evaluation
      * @param source
      * @param from
      * @param to
      */
-    private Collection filterByCondition(Collection source, int from, int to) throws XPatherException {
+    private Collection filterByCondition(Evaluation evaluation, Collection source, int from, int to) throws XPatherException {
         ArrayList result = new ArrayList();
         Iterator iterator = source.iterator();
         int index = 0;
@@ -329,7 +696,7 @@ public class XPather {
             Object curr = iterator.next();
             index++;
 
-            ArrayList logicValueList = new ArrayList(evaluateAgainst(singleton(curr), from, to, false, index, size, true, singleton(curr)));
+            ArrayList logicValueList = new ArrayList(evaluateAgainst(evaluation, singleton(curr), from, to, false, index, size, true, singleton(curr)));
             if (logicValueList.size() >= 1) {
                 Object first = logicValueList.get(0);
                 if (first instanceof Boolean) {
@@ -430,13 +797,14 @@ public class XPather {
     /**
      * For the given source collection and specified name, returns collection of subnodes
      * or attribute values.
+     * @param evaluation
      * @param source
      * @param from
      * @param to
      * @param isRecursive
      * @return Colection of TagNode instances or collection of String instances.              
      */
-    private Collection getElementsByName(Collection source, int from, int to, boolean isRecursive, boolean isFilterContext) throws XPatherException {
+    private Collection getElementsByName(Evaluation evaluation, Collection source, int from, int to, boolean isRecursive, boolean isFilterContext) throws XPatherException {
         String name = tokenArray[from].trim();
 
         if (isAtt(name)) {
@@ -462,12 +830,13 @@ public class XPather {
                 Object next = iterator.next();
                 if (next instanceof TagNode) {
                     TagNode node = (TagNode) next;
+                    evaluation.visitedNodes++;
                     if ("*".equals(name)) {
-                        result.addAll( evaluateAgainst(node.getAttributes().values(), from + 1, to, false, 1, 1, isFilterContext, null) );
+                        result.addAll( evaluateAgainst(evaluation, node.getAttributes().values(), from + 1, to, false, 1, 1, isFilterContext, null) );
                     } else {
                         String attValue = node.getAttributeByName(name);
                         if (attValue != null) {
-                            result.addAll( evaluateAgainst(singleton(attValue), from + 1, to, false, 1, 1, isFilterContext, null) );
+                            result.addAll( evaluateAgainst(evaluation, singleton(attValue), from + 1, to, false, 1, 1, isFilterContext, null) );
                         }
                     }
                 } else {
@@ -484,6 +853,7 @@ public class XPather {
                 if (next instanceof TagNode) {
                     TagNode node = (TagNode) next;
                     index++;
+                    evaluation.visitedNodes++;
                     boolean isSelf = ".".equals(name);
                     boolean isParent = "..".equals(name);
                     boolean isAll = "*".equals(name);
@@ -499,7 +869,7 @@ public class XPather {
                     }
 
                     LinkedHashSet nodeSet = new LinkedHashSet(subnodes);
-                    Collection refinedSubnodes = evaluateAgainst(nodeSet, from + 1, to, false, index, nodeSet.size(), isFilterContext, null);
+                    Collection refinedSubnodes = evaluateAgainst(evaluation, nodeSet, from + 1, to, false, index, nodeSet.size(), isFilterContext, null);
 
                     if (isRecursive) {
                         List childTags = node.getChildTagList();
@@ -509,7 +879,7 @@ public class XPather {
                         Iterator childIterator = childTags.iterator();
                         while (childIterator.hasNext()) {
                             TagNode childTag = (TagNode) childIterator.next();
-                            Collection childrenByName = getElementsByName(singleton(childTag), from, to, isRecursive, isFilterContext);
+                            Collection childrenByName = getElementsByName(evaluation, singleton(childTag), from, to, isRecursive, isFilterContext);
                             if ( !isSelf && !isParent && !isAll && refinedSubnodes.contains(childTag) ) {
                                 result.add(childTag);
                             }
@@ -0,0 +1,112 @@
+/*  Copyright (c) 2006-2007, Vladimir Nikic
+    All rights reserved.
+
+    Redistribution and use of this software in source and binary forms,
+    with or without modification, are permitted provided that the following
+    conditions are met:
+
+    * Redistributions of source code must retain the above
+      copyright notice, this list of conditions and the
+      following disclaimer.
+
+    * Redistributions in binary form must reproduce the above
+      copyright notice, this list of conditions and the
+      following disclaimer in the documentation and/or other
+      materials provided with the distribution.
+
+    * The name of HtmlCleaner may not be used to endorse or promote
+      products derived from this software without specific prior
+      written permission.
+
+    THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+    AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+    IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+    ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+    LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+    CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+    SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+    INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+    CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+    ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+    POSSIBILITY OF SUCH DAMAGE.
+
+    You can contact Vladimir Nikic by sending e-mail to
+    nikic_vladimir@yahoo.com. Please include the word "HtmlCleaner" in the
+    subject line.
+*/
+
+package org.htmlcleaner;
+
+/**
+ * <p>
+ *      Statistics of all evaluations of one XPath expression, collected while XPather profiling is
+ *      enabled (see XPather.setProfilingEnabled()). Visited nodes are the nodes whose children or
+ *      attributes were looked through, so expressions scanning the whole document stand out.
+ * </p>
+ */
+public class XPatherProfile {
+
+    private String expression;
+    private int calls;
+    private long totalTime;
+    private long maxTime;
+    private long visitedNodes;
+    private long totalResults;
+    private int maxResults;
+
+    XPatherProfile(String expression) {
+        this.expression = expression;
+    }
+
+    synchronized void addCall(long time, int visited, int results) {
+        calls++;
+        totalTime += time;
+        maxTime = Math.max(maxTime, time);
+        visitedNodes += visited;
+        totalResults += results;
+        maxResults = Math.max(maxResults, results);
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public synchronized int getCalls() {
+        return calls;
+    }
+
+    /**
+     * @return Time in nanoseconds spent in all the evaluations.
+     */
+    public synchronized long getTotalTime() {
+        return totalTime;
+    }
+
+    /**
+     * @return Time in nanoseconds of the slowest evaluation.
+     */
+    public synchronized long getMaxTime() {
+        return maxTime;
+    }
+
+    public synchronized long getVisitedNodes() {
+        return visitedNodes;
+    }
+
+    /**
+     * @return Number of items in all the results.
+     */
+    public synchronized long getTotalResults() {
+        return totalResults;
+    }
+
+    public synchronized int getMaxResults() {
+        return maxResults;
+    }
+
+    public synchronized String toString() {
+        return expression + ": calls: " + calls + ", total: " + totalTime / 1000 + " us, max: " + maxTime / 1000 + " us, " +
+               "visited nodes: " + visitedNodes + ", results: " + totalResults + " (max " + maxResults + ")";
+    }
+
+}
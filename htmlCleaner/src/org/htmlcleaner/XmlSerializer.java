@@ -45,6 +45,10 @@ import java.util.*;
  */
 public abstract class XmlSerializer extends Serializer {
 
+    // escaping of the subclass overriding escapeXml() is kept, instead of escaping straight into the writer
+    private final boolean isEscapeXmlOverridden =
+            Utils.isOverridden(getClass(), XmlSerializer.class, "escapeXml", String.class);
+
 	protected XmlSerializer(CleanerProperties props) {
 		super(props);
     }
@@ -105,10 +109,68 @@ public abstract class XmlSerializer extends Serializer {
         super.write(tagNode, writer, charset);
     }
 
+    /**
+     * Escapes XML content of texts and attribute values. Subclasses may override it to change
+     * the escaping - serializer then passes all the content through it, instead of escaping
+     * it directly into the writer.
+     * @param xmlContent
+     * @return Escaped content
+     */
     protected String escapeXml(String xmlContent) {
         return Utils.escapeXml(xmlContent, props, false);
     }
 
+    /**
+     * Writes escaped XML content directly to the writer, following the same rules as escapeXml().
+     * @param xmlContent
+     * @param writer
+     * @throws IOException
+     */
+    protected void writeEscapedXml(String xmlContent, Writer writer) throws IOException {
+        appendEscapedXml(xmlContent, 0, xmlContent.length(), writer);
+    }
+
+    /**
+     * Appends escaped part of the XML content to the output, through escapeXml() if a subclass
+     * overrides it, or escaping it in place otherwise.
+     */
+    void appendEscapedXml(String xmlContent, int start, int end, Appendable out) throws IOException {
+        if (isEscapeXmlOverridden) {
+            out.append( escapeXml(xmlContent.substring(start, end)) );
+        } else {
+            Utils.escapeXml(xmlContent, start, end, props, false, out);
+        }
+    }
+
+    /**
+     * Writes content of CDATA section, escaping "]]>" sequences inside it.
+     * @param content
+     * @param writer
+     * @throws IOException
+     */
+    protected void writeCDataContent(String content, Writer writer) throws IOException {
+        writeCDataContent(content, 0, content.length(), writer);
+    }
+
+    /**
+     * Writes specified part of CDATA section content, escaping "]]>" sequences inside it.
+     * @param content
+     * @param start Index of the first character to be written
+     * @param end Index after the last character to be written
+     * @param writer
+     * @throws IOException
+     */
+    protected void writeCDataContent(String content, int start, int end, Writer writer) throws IOException {
+        int index = content.indexOf("]]>", start);
+        while (index >= 0 && index + 3 <= end) {
+            writer.write(content, start, index - start);
+            writer.write("]]&gt;");
+            start = index + 3;
+            index = content.indexOf("]]>", start);
+        }
+        writer.write(content, start, end - start);
+    }
+
     protected boolean dontEscape(TagNode tagNode) {
         return props.isUseCdataForScriptAndStyle() && isScriptOrStyle(tagNode);
     }
@@ -169,7 +231,11 @@ public abstract class XmlSerializer extends Serializer {
                     attName = Utils.getXmlName(attName);
                 }
             }
-            writer.write(" " + attName + "=\"" + escapeXml(entry.getValue()) + "\"");
+            writer.write(' ');
+            writer.write(attName);
+            writer.write("=\"");
+            writeEscapedXml(entry.getValue(), writer);
+            writer.write('"');
         }
 
         // write namespace declarations 
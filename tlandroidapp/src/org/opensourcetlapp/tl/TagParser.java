@@ -25,9 +25,11 @@ package org.opensourcetlapp.tl;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
 import java.nio.CharBuffer;
 import java.util.Date;
 import java.util.regex.Matcher;
@@ -36,9 +38,25 @@ import java.util.regex.Pattern;
 import android.os.Debug;
 import android.util.Log;
 
+/**
+ * Extracts the region of the page starting with the given tag, up to its matching end tag.
+ * Scan state is kept in the instance, so each thread extracting a page uses its own instance
+ * (the static extractTagToFile creates one per call).
+ */
 public class TagParser {
-	private static int end = 0;
-	private static char [] charBuffer = new char[4096];
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+	private static final int SCAN_BUFFER_SIZE = 8192;
+	
+	// byte with ASCII upper case letters turned to lower case, other bytes are unchanged
+	private static final byte [] FOLD = new byte[256];
+	static {
+		for (int i = 0; i < 256; i++){
+			FOLD[i] = (byte) (i >= 'A' && i <= 'Z' ? i + ('a' - 'A') : i);
+		}
+	}
+	
+	private int end = 0;
+	private char [] charBuffer = new char[INITIAL_BUFFER_SIZE];
 	private static final String TAG = "TagParser";
 	private static boolean DEBUG = false;
 	
@@ -49,25 +67,25 @@ public class TagParser {
 			Log.d(TAG, date.toGMTString());
 		}
 	
+	   /**
+	    * Writes the element starting with the given tag, up to its matching end tag. The tag is found
+	    * in the UTF-8 bytes of the page as it is written there, except that ASCII letters are compared
+	    * regardless of case - other characters, non-ASCII ones included, have to match exactly.
+	    * @return Whether the tag was found.
+	    */
 	   public static boolean extractTagToFile(String fullTag, InputStream is, BufferedWriter bw) throws IOException{
+		   return new TagParser().extract(fullTag, is, bw);
+	   }
+	   
+	   public boolean extract(String fullTag, InputStream is, BufferedWriter bw) throws IOException{
 		 //  printTimeStamp();
-		   InputStreamReader as = new InputStreamReader(is, "UTF-8");
+		   InputStream rest = skipToAnchor(is, fullTag, bw);
+		   if (rest == null){
+			   return false;
+		   }
+		   InputStreamReader as = new InputStreamReader(rest, "UTF-8");
 		   BufferedReader br = new BufferedReader(as);
-		   boolean found = false;
 		   String tagName = parseTagName(fullTag);
-			while (findNextTag(br, null)){
-				printBuffer();
-				if (bufferCompare(fullTag)){
-					found = true;
-					writeBuffer1(bw);
-					break;
-				}
-				else if (bufferTagNameCompare(SCRIPT_TAG_NAME)){
-					passThroughUntilClosingTag(br, null, SCRIPT_TAG_NAME);
-				}
-				else {
-				}
-			}
 			
 			int count = 1;
 			while (findNextTag(br, bw)){
@@ -88,16 +106,215 @@ public class TagParser {
 					break;
 				}
 			}
-			return found;
+			return true;
 		//	printTimeStamp();
 	    }
+	   
+	    /**
+	     * Skips the raw bytes up to the first occurrence of the anchor tag, using Boyer-Moore-Horspool
+	     * search with ASCII letters compared regardless of case. Nothing before the anchor is decoded.
+	     * Occurrences inside comments, quoted attribute values and scripts are skipped, the same
+	     * as the tag by tag scan did.
+	     * The anchor, as it is written in the page, is written to the output.
+	     * @return Stream of the bytes following the anchor, or null if there is no anchor.
+	     */
+	    private static InputStream skipToAnchor(InputStream is, String anchor, BufferedWriter bw) throws IOException{
+	    	byte [] pattern = anchor.getBytes("UTF-8");
+	    	int m = pattern.length;
+	    	int [] shift = new int[256];
+	    	for (int i = 0; i < m; i++){
+	    		pattern[i] = FOLD[pattern[i] & 0xff];
+	    	}
+	    	for (int i = 0; i < 256; i++){
+	    		shift[i] = m;
+	    	}
+	    	for (int i = 0; i < m - 1; i++){
+	    		shift[pattern[i] & 0xff] = m - 1 - i;
+	    	}
+	    	
+	    	byte [] buffer = new byte[Math.max(SCAN_BUFFER_SIZE, 2 * m)];
+	    	int len = 0;
+	    	int pos = 0;
+	    	// the context tracker has to see a few bytes after each candidate
+	    	int window = Math.max(m, ContextTracker.LOOKAHEAD);
+	    	ContextTracker context = new ContextTracker();
+	    	while (true){
+	    		while (pos + window <= len){
+	    			int j = m - 1;
+	    			while (j >= 0 && FOLD[buffer[pos + j] & 0xff] == pattern[j]){
+	    				j--;
+	    			}
+	    			if (j < 0){
+	    				context.advance(buffer, pos, len);
+	    				if (context.pos == pos && context.state == ContextTracker.TEXT){
+	    					bw.write(new String(buffer, pos, m, "UTF-8"));
+	    					return new SequenceInputStream(new ByteArrayInputStream(buffer, pos + m, len - pos - m), is);
+	    				}
+	    				pos++;
+	    				continue;
+	    			}
+	    			pos += shift[FOLD[buffer[pos + m - 1] & 0xff] & 0xff];
+	    		}
+	    		
+	    		// keeps the bytes which may be the beginning of the anchor, or of a delimiter
+	    		context.advance(buffer, pos, len);
+	    		int from = Math.min(Math.min(pos, context.pos), len);
+	    		int kept = len - from;
+	    		System.arraycopy(buffer, from, buffer, 0, kept);
+	    		len = kept;
+	    		pos -= from;
+	    		context.pos -= from;
+	    		int read = is.read(buffer, len, buffer.length - len);
+	    		if (read < 0){
+	    			return null;
+	    		}
+	    		len += read;
+	    	}
+	    }
+	    
+	    /**
+	     * Follows the raw bytes of the page through text, tags with their quoted attribute values,
+	     * comments and scripts, looking at each byte once.
+	     */
+	    private static class ContextTracker {
+	    	static final int TEXT = 0;
+	    	static final int TAG = 1;
+	    	static final int VALUE = 2;
+	    	static final int COMMENT = 3;
+	    	static final int SCRIPT = 4;
+	    	
+	    	// bytes needed from the scanned position on, to recognize "</script" and the byte after it
+	    	static final int LOOKAHEAD = 9;
+	    	private static final byte [] SCRIPT_NAME = {'s', 'c', 'r', 'i', 'p', 't'};
+	    	
+	    	// index of the first byte not scanned yet
+	    	int pos = 0;
+	    	int state = TEXT;
+	    	// quote closing the current attribute value
+	    	private byte quote;
+	    	// whether the quote would start attribute value, i.e. '=' precedes it
+	    	private boolean afterEquals;
+	    	// whether the current tag is start tag of a script
+	    	private boolean scriptTag;
+	    	
+	    	/**
+	    	 * Scans the bytes up to the limit, or up to the last bytes of the buffer which may
+	    	 * be the beginning of a delimiter.
+	    	 */
+	    	void advance(byte [] buffer, int limit, int len){
+	    		limit = Math.min(limit, len - LOOKAHEAD + 1);
+	    		int i = pos;
+	    		while (i < limit){
+	    			// skips quickly the bytes which can't change the state
+	    			if (state == TEXT || state == SCRIPT){
+	    				while (i < limit && buffer[i] != '<'){
+	    					i++;
+	    				}
+	    			}
+	    			else if (state == TAG && !afterEquals){
+	    				while (i < limit && buffer[i] != '>' && buffer[i] != '='){
+	    					i++;
+	    				}
+	    			}
+	    			else if (state == VALUE){
+	    				while (i < limit && buffer[i] != quote){
+	    					i++;
+	    				}
+	    			}
+	    			else if (state == COMMENT){
+	    				while (i < limit && buffer[i] != '-'){
+	    					i++;
+	    				}
+	    			}
+	    			if (i == limit){
+	    				break;
+	    			}
+	    			byte b = buffer[i];
+	    			switch (state){
+	    			case TEXT:
+	    				if (b == '<'){
+	    					if (buffer[i + 1] == '!' && buffer[i + 2] == '-' && buffer[i + 3] == '-'){
+	    						state = COMMENT;
+	    						i += 3;
+	    					}
+	    					else if (isTagStart(buffer[i + 1])){
+	    						state = TAG;
+	    						afterEquals = false;
+	    						scriptTag = isName(buffer, i + 1, SCRIPT_NAME);
+	    					}
+	    				}
+	    				break;
+	    			case TAG:
+	    				if (b == '>'){
+	    					state = scriptTag ? SCRIPT : TEXT;
+	    				}
+	    				else if (b == '='){
+	    					afterEquals = true;
+	    				}
+	    				else if ((b == '"' || b == '\'') && afterEquals){
+	    					state = VALUE;
+	    					quote = b;
+	    				}
+	    				else if (b != ' ' && b != '\t' && b != '\n' && b != '\r'){
+	    					afterEquals = false;
+	    				}
+	    				break;
+	    			case VALUE:
+	    				if (b == quote){
+	    					state = TAG;
+	    					afterEquals = false;
+	    				}
+	    				break;
+	    			case COMMENT:
+	    				if (b == '-' && buffer[i + 1] == '-' && buffer[i + 2] == '>'){
+	    					state = TEXT;
+	    					i += 2;
+	    				}
+	    				break;
+	    			default:
+	    				if (b == '<' && buffer[i + 1] == '/' && isName(buffer, i + 2, SCRIPT_NAME)){
+	    					state = TAG;
+	    					afterEquals = false;
+	    					scriptTag = false;
+	    				}
+	    				break;
+	    			}
+	    			i++;
+	    		}
+	    		pos = Math.max(pos, i);
+	    	}
+	    	
+	    	private static boolean isTagStart(byte b){
+	    		byte folded = FOLD[b & 0xff];
+	    		return (folded >= 'a' && folded <= 'z') || b == '/' || b == '!' || b == '?';
+	    	}
+	    	
+	    	/**
+	    	 * @return Whether the bytes at the offset are the given lower case name, regardless of case,
+	    	 * followed by a byte which can't be part of the name.
+	    	 */
+	    	private static boolean isName(byte [] buffer, int offset, byte [] name){
+	    		for (int i = 0; i < name.length; i++){
+	    			if (FOLD[buffer[offset + i] & 0xff] != name[i]){
+	    				return false;
+	    			}
+	    		}
+	    		byte next = buffer[offset + name.length];
+	    		return next == '>' || next == '/' || next == ' ' || next == '\t' || next == '\n' || next == '\r';
+	    	}
+	    }
 	    
-	    private static void passThroughUntilClosingTag(BufferedReader br, BufferedWriter bw,
+	    private void passThroughUntilClosingTag(BufferedReader br, BufferedWriter bw,
 			String tagName) throws IOException {
 	    	int pos = 0;
 	    	char [] closeTag = ("</"+tagName+">").toCharArray();
 	    	while (true){
-	    		char c = (char) br.read();
+	    		int read = br.read();
+	    		if (read < 0){
+	    			// page ended inside the script
+	    			break;
+	    		}
+	    		char c = (char) read;
 	    		if (bw != null){
 	    			bw.write(c);
 	    		}
@@ -117,7 +334,7 @@ public class TagParser {
 	    	}
 	    }
 
-		public static boolean findNextTag(BufferedReader br, BufferedWriter bw) throws IOException{
+		public boolean findNextTag(BufferedReader br, BufferedWriter bw) throws IOException{
 			int startChar;
 			int endChar;
 			end = 0;
@@ -136,8 +353,7 @@ public class TagParser {
 				if (startChar == '<'){
 					bufferChar = br.read();
 					if(bufferChar != ' ') {
-						charBuffer[end] = (char) startChar;
-						end++;
+						append((char) startChar);
 						first = true;
 						break;
 					} else {
@@ -161,8 +377,7 @@ public class TagParser {
 					endChar = bufferChar;
 					first = false;
 				}
-				charBuffer[end] = (char)endChar;
-				end++;
+				append((char)endChar);
 				if (endChar == '>'){
 					if(charBuffer[end-1] != ' ') {
 						count --;
@@ -183,6 +398,16 @@ public class TagParser {
 			return true;
 		}
 	 
+		private void append(char c){
+			if (end == charBuffer.length){
+				char [] newBuffer = new char[charBuffer.length * 2];
+				System.arraycopy(charBuffer, 0, newBuffer, 0, end);
+				charBuffer = newBuffer;
+			}
+			charBuffer[end] = c;
+			end++;
+		}
+	 
 		private static Pattern p = Pattern.compile("^</?([a-zA-Z0-9]*)");
 		
 	    public static String parseTagName(CharSequence tag){
@@ -191,10 +416,10 @@ public class TagParser {
 	    	return m.group(1);
 	    }
 	    
-	    public static int OPEN_TAG = 0;
-	    public static int CLOSE_TAG = 1;
+	    public static final int OPEN_TAG = 0;
+	    public static final int CLOSE_TAG = 1;
 	    
-	    public static int parseTagType(){
+	    public int parseTagType(){
 	    	if (charBuffer[1] == '/'){
 	    		return CLOSE_TAG;
 	    	}
@@ -203,7 +428,7 @@ public class TagParser {
 	    	}
 	    }
 	    
-	    public static boolean bufferTagNameCompare(String tagName){
+	    public boolean bufferTagNameCompare(String tagName){
 	    	int charBufferPos = 0;
 	    	int c = charBuffer[charBufferPos];
 	    	if (c != '<'){
@@ -250,32 +475,17 @@ public class TagParser {
 	    	return true;
 	    }
 	    
-	    private static boolean bufferCompare(String target){
-	    	if (end != target.length()){
-	    		return false;
-	    	}
-	    	for (int i = 0; i < end; i++){
-	    		char c = Character.toUpperCase(charBuffer[i]);
-	    		char d = Character.toLowerCase(charBuffer[i]);
-	
-	    		if (c != target.charAt(i) && d != target.charAt(i)){
-	    			return false;
-	    		}
-	    	}
-	    	return true;
-	    }
-	    
-	    private static void writeBuffer1(BufferedWriter bw) throws IOException{
+	    private void writeBuffer1(BufferedWriter bw) throws IOException{
 	    	for (int i = 0 ; i < end; i++){
 	    		bw.write(charBuffer[i]);
 	    	}
 	    }
 	    
-	    private static void writeBuffer2(BufferedWriter bw) throws IOException{
+	    private void writeBuffer2(BufferedWriter bw) throws IOException{
 	    	bw.write(charBuffer, 0, end);
 	    }
 	    
-	    private static void printBuffer(){
+	    private void printBuffer(){
 	    	if (!DEBUG){
 	    		return;
 	    	}
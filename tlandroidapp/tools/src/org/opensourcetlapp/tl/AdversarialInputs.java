@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010, 2011 Ali Piccioni & Francois Poizat
+ *
+ * This program is distributed under the terms of the GNU General Public License
+ *
+ *  This file is part of Team Liquid Android App.
+ *
+ *  Team Liquid Android App is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Team Liquid Android App is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Team Liquid Android App.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.opensourcetlapp.tl;
+
+/**
+ * Generates inputs which make the tree building of HtmlCleaner do the most work per character:
+ * deep nesting, long chains of formatting tags copied by every block tag, and tags left unclosed.
+ * Each case repeats a short pattern the given number of times.
+ */
+public class AdversarialInputs {
+	public static final String [] CASES = {"b-p", "font-li", "unclosed-inline", "unclosed-div",
+		"misnested-table", "deep-quote"};
+	
+	/**
+	 * @param name One of CASES
+	 * @param repeats Number of repeats of the pattern
+	 * @return Generated input
+	 */
+	public static String generate(String name, int repeats){
+		StringBuilder html = new StringBuilder("<html><body>");
+		if ("b-p".equals(name)){
+			// every paragraph closes the previous one and copies all the bold tags into the new one
+			for (int i = 0; i < repeats; i++){
+				html.append("<b><p>x");
+			}
+		}
+		else if ("font-li".equals(name)){
+			// every list item copies the whole chain of unclosed fonts
+			for (int i = 0; i < repeats; i++){
+				html.append("<font>");
+			}
+			for (int i = 0; i < repeats; i++){
+				html.append("<li>x");
+			}
+		}
+		else if ("unclosed-inline".equals(name)){
+			String [] tags = {"b", "i", "u", "span", "em"};
+			for (int i = 0; i < repeats; i++){
+				html.append('<').append(tags[i % tags.length]).append(">x");
+			}
+		}
+		else if ("unclosed-div".equals(name)){
+			for (int i = 0; i < repeats; i++){
+				html.append("<div>x");
+			}
+		}
+		else if ("misnested-table".equals(name)){
+			for (int i = 0; i < repeats; i++){
+				html.append("<table><tr><td><b>x</td><i>y");
+			}
+		}
+		else if ("deep-quote".equals(name)){
+			for (int i = 0; i < repeats; i++){
+				html.append("<div class=\"quote\"><b>quote</b><br>");
+			}
+			for (int i = 0; i < repeats; i++){
+				html.append("</div>");
+			}
+		}
+		else {
+			throw new IllegalArgumentException("Unknown case " + name);
+		}
+		return html.append("</body></html>").toString();
+	}
+}
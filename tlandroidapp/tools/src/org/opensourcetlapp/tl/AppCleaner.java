@@ -0,0 +1,43 @@
+/*
+ * Copyright 2010, 2011 Ali Piccioni & Francois Poizat
+ *
+ * This program is distributed under the terms of the GNU General Public License
+ *
+ *  This file is part of Team Liquid Android App.
+ *
+ *  Team Liquid Android App is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Team Liquid Android App is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Team Liquid Android App.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.opensourcetlapp.tl;
+
+import org.htmlcleaner.CleanerProperties;
+import org.htmlcleaner.HtmlCleaner;
+
+/**
+ * Cleaner configured the same way as TLLib.buildDefaultHtmlCleaner, which can't be used outside
+ * of Android, so that the benchmarks clean pages the way the app does.
+ */
+public class AppCleaner {
+	public static HtmlCleaner build(){
+		HtmlCleaner cleaner = new HtmlCleaner();
+		CleanerProperties props = cleaner.getProperties();
+		props.setAllowHtmlInsideAttributes(true);
+		props.setAllowMultiWordAttributes(true);
+		props.setRecognizeUnicodeChars(true);
+		props.setOmitComments(true);
+		return cleaner;
+	}
+}
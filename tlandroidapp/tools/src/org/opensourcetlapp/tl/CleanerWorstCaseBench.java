@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010, 2011 Ali Piccioni & Francois Poizat
+ *
+ * This program is distributed under the terms of the GNU General Public License
+ *
+ *  This file is part of Team Liquid Android App.
+ *
+ *  Team Liquid Android App is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Team Liquid Android App is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Team Liquid Android App.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.opensourcetlapp.tl;
+
+import java.lang.reflect.Method;
+
+import org.htmlcleaner.CleanerProperties;
+import org.htmlcleaner.HtmlCleaner;
+
+/**
+ * Times HtmlCleaner on the adversarial inputs of growing size, to show how the cleaning time
+ * scales with the input. The limits of open tag depth and copied tag chains are set when the
+ * cleaner on the class path has them, so the same harness runs on the old cleaner too. Larger
+ * sizes of a case are skipped once it takes longer than TIME_LIMIT_MS, overflows the stack or runs out of
+ * memory.
+ * Usage: CleanerWorstCaseBench maxOpenTagDepth maxCopyTagChain size... (0 means no limit)
+ */
+public class CleanerWorstCaseBench {
+	private static final long TIME_LIMIT_MS = 10000;
+	
+	public static void main(String [] args) throws Exception {
+		if (args.length < 3){
+			System.err.println("Usage: CleanerWorstCaseBench maxOpenTagDepth maxCopyTagChain size...");
+			System.exit(2);
+		}
+		int maxDepth = Integer.parseInt(args[0]);
+		int maxChain = Integer.parseInt(args[1]);
+		HtmlCleaner cleaner = new HtmlCleaner();
+		CleanerProperties props = cleaner.getProperties();
+		boolean limited = setLimit(props, "setMaxOpenTagDepth", maxDepth) & setLimit(props, "setMaxCopyTagChain", maxChain);
+		System.out.println(limited ? "limits: open tag depth " + maxDepth + ", copied tag chain " + maxChain
+				: "limits: not supported by this cleaner");
+		
+		// warms up the code paths on small inputs
+		for (String name : AdversarialInputs.CASES){
+			for (int i = 0; i < 20; i++){
+				cleaner.clean(AdversarialInputs.generate(name, 50));
+			}
+		}
+		
+		for (String name : AdversarialInputs.CASES){
+			for (int i = 2; i < args.length; i++){
+				int repeats = Integer.parseInt(args[i]);
+				String html = AdversarialInputs.generate(name, repeats);
+				System.gc();
+				long start = System.nanoTime();
+				try {
+					cleaner.clean(html);
+				} catch (StackOverflowError e){
+					System.out.println(String.format("%-16s %6d repeats: stack overflow, larger sizes skipped", name, repeats));
+					break;
+				} catch (OutOfMemoryError e){
+					System.out.println(String.format("%-16s %6d repeats: out of memory, larger sizes skipped", name, repeats));
+					break;
+				}
+				long millis = (System.nanoTime() - start) / 1000000;
+				System.out.println(String.format("%-16s %6d repeats, %7d chars: %6d ms, %.3f ms per repeat",
+						name, repeats, html.length(), millis, (double) millis / repeats));
+				if (millis > TIME_LIMIT_MS){
+					System.out.println(String.format("%-16s larger sizes skipped", name));
+					break;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return Whether the properties have the setter.
+	 */
+	private static boolean setLimit(CleanerProperties props, String setter, int value) throws Exception {
+		Method method;
+		try {
+			method = CleanerProperties.class.getMethod(setter, int.class);
+		} catch (NoSuchMethodException e){
+			return false;
+		}
+		method.invoke(props, value);
+		return true;
+	}
+}
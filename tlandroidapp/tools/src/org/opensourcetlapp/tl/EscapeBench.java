@@ -0,0 +1,119 @@
+/*
+ * Copyright 2010, 2011 Ali Piccioni & Francois Poizat
+ *
+ * This program is distributed under the terms of the GNU General Public License
+ *
+ *  This file is part of Team Liquid Android App.
+ *
+ *  Team Liquid Android App is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Team Liquid Android App is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Team Liquid Android App.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.opensourcetlapp.tl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.htmlcleaner.CleanerProperties;
+import org.htmlcleaner.HtmlCleaner;
+import org.htmlcleaner.TagNode;
+import org.htmlcleaner.Utils;
+
+/**
+ * Compares escaping through Utils.escapeXml returning a new String with escaping straight into
+ * an Appendable, on the texts and raw HTML of the posts of generated forum pages, which are dense
+ * with entities, reserved characters and non-ASCII letters. Posts are escaped one by one, and then
+ * all posts of a page as one long text. Inputs are escaped many times and the best time is reported, with a hash of the output so the runs can be checked for equal results.
+ * Run with -Dbaseline.src, the old cleaner has only the String path.
+ * Usage: EscapeBench [pages=5] [posts=100]
+ */
+public class EscapeBench {
+	private static final int WARMUP_ROUNDS = 20;
+	private static final int ROUNDS = 50;
+	
+	public static void main(String [] args) throws Exception {
+		int pages = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int posts = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		HtmlCleaner cleaner = AppCleaner.build();
+		CleanerProperties props = cleaner.getProperties();
+		
+		// every post on its own, as the serializers escape them, and whole pages as single long texts
+		List<String> postTexts = new ArrayList<String>();
+		List<String> pageTexts = new ArrayList<String>();
+		for (int i = 0; i < pages; i++){
+			TagNode rootNode = cleaner.clean(new ForumPageGenerator(i).generate(posts));
+			StringBuilder page = new StringBuilder();
+			for (TagNode post : rootNode.getElementsByAttValue("class", "forumPost", true, false)){
+				String text = post.getText().toString();
+				String html = cleaner.getInnerHtml(post);
+				postTexts.add(text);
+				postTexts.add(html);
+				page.append(text).append(html);
+			}
+			pageTexts.add(page.toString());
+		}
+		bench("posts", postTexts, props);
+		bench("pages", pageTexts, props);
+	}
+	
+	private static void bench(String name, List<String> texts, CleanerProperties props) throws IOException {
+		long chars = 0;
+		for (String text : texts){
+			chars += text.length();
+		}
+		System.out.println(String.format("%s: %d texts, %d chars", name, texts.size(), chars));
+		
+		StringBuilder out = new StringBuilder();
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++){
+			out.setLength(0);
+			long start = System.nanoTime();
+			for (String text : texts){
+				out.append(Utils.escapeXml(text, props, false));
+			}
+			if (round >= WARMUP_ROUNDS){
+				best = Math.min(best, System.nanoTime() - start);
+			}
+		}
+		report("string", chars, best, out);
+		
+		try {
+			best = Long.MAX_VALUE;
+			for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++){
+				out.setLength(0);
+				long start = System.nanoTime();
+				for (String text : texts){
+					escapeInto(text, props, out);
+				}
+				if (round >= WARMUP_ROUNDS){
+					best = Math.min(best, System.nanoTime() - start);
+				}
+			}
+			report("appendable", chars, best, out);
+		} catch (NoSuchMethodError e){
+			System.out.println("  appendable: not supported by this cleaner");
+		}
+	}
+	
+	private static void escapeInto(String text, CleanerProperties props, StringBuilder out) throws IOException {
+		Utils.escapeXml(text, 0, text.length(), props, false, out);
+	}
+	
+	private static void report(String name, long chars, long nanos, CharSequence out){
+		System.out.println(String.format("  %-10s: %.3f ms, %.1f M chars/s, output %d chars, hash %08x",
+				name, nanos / 1e6, chars / 1e6 / (nanos / 1e9), out.length(), out.toString().hashCode()));
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2010, 2011 Ali Piccioni & Francois Poizat
+ *
+ * This program is distributed under the terms of the GNU General Public License
+ *
+ *  This file is part of Team Liquid Android App.
+ *
+ *  Team Liquid Android App is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Team Liquid Android App is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Team Liquid Android App.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.opensourcetlapp.tl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Generates forum thread pages laid out like the pages ShowThread reads: a table anchored by
+ * ANCHOR with one row per post, each holding the header and the td.forumPost body. Around it are
+ * the parts which used to trouble the extractors - the anchor echoed in an inline script, a comment
+ * and an attribute value, scripts writing tables inside the posts, non-ASCII text and, on a quarter
+ * of the pages, tags longer than 4096 characters. Pages only depend on the seed, so runs can be repeated.
+ * Usage: ForumPageGenerator directory count [posts]
+ */
+public class ForumPageGenerator {
+	public static final String ANCHOR = "<table width=\"742\" cellspacing=\"0\" cellpadding=\"0\">";
+	
+	private static final String [] WORDS = {"zerg", "protoss", "terran", "build", "macro", "rush",
+		"expand", "GSL", "café", "naïve", "über", "ladder", "patch", "&amp;", "&lt;3", "a < b"};
+	private static final String [] FORMATS = {"b", "i", "u", "strong", "em", "span"};
+	
+	private final Random random;
+	
+	public ForumPageGenerator(long seed){
+		random = new Random(seed);
+	}
+	
+	public static void main(String [] args) throws IOException {
+		if (args.length < 2){
+			System.err.println("Usage: ForumPageGenerator directory count [posts]");
+			System.exit(2);
+		}
+		File dir = new File(args[0]);
+		int count = Integer.parseInt(args[1]);
+		int posts = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		if (!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("Cannot create directory " + dir);
+		}
+		for (int i = 0; i < count; i++){
+			byte [] page = new ForumPageGenerator(i).generate(posts).getBytes("UTF-8");
+			OutputStream out = new FileOutputStream(new File(dir, String.format("page%03d.html", i)));
+			try {
+				out.write(page);
+			} finally {
+				out.close();
+			}
+		}
+		System.out.println("Generated " + count + " pages with " + posts + " posts in " + dir);
+	}
+	
+	/**
+	 * @return Page of the thread with the specified number of posts.
+	 */
+	public String generate(int posts){
+		StringBuilder page = new StringBuilder();
+		page.append("<html><head><title>Thread</title>\n");
+		page.append("<script type=\"text/javascript\">\nvar PARSE_NODE = '").append(ANCHOR).append("';\n");
+		page.append("if (a < b && c > d) { document.write(\"<table>\"); }\n</script>\n");
+		page.append("</head><body>\n<!-- posts start at ").append(ANCHOR).append(" -->\n");
+		page.append("<a href=\"/forum\" title='").append(ANCHOR).append("'>Forum</a>\n");
+		for (int i = 0; i < 5; i++){
+			page.append("<table width=\"100%\"><tr><td class=\"nav\">").append(words(3)).append("</td></tr></table>\n");
+		}
+		boolean longTags = random.nextInt(4) == 0;
+		if (longTags){
+			page.append("<div style=\"").append(longValue()).append("\">banner</div>\n");
+		}
+		
+		page.append(ANCHOR).append('\n');
+		for (int i = 0; i < posts; i++){
+			page.append("<tr><td><table width=\"752\">");
+			page.append("<tr><td class=\"titelbalk\"><a name=\"").append(i).append("\">").append(words(2));
+			page.append("</a> Posted ").append(random.nextInt(28) + 1).append(" Jan 2012</td></tr>");
+			page.append("<tr><td class=\"forumPost\">").append(postBody(longTags)).append("</td></tr>");
+			page.append("</table></td></tr>\n");
+		}
+		page.append("<tr><td><form name=\"theform\"><input type=\"submit\"></form></td></tr>\n");
+		page.append("</table>\n");
+		
+		page.append("<table width=\"100%\"><tr><td>").append(words(5)).append("</td></tr></table>\n");
+		page.append("<script>var last = '</table>';</script>\n</body></html>\n");
+		return page.toString();
+	}
+	
+	private String postBody(boolean longTags){
+		StringBuilder body = new StringBuilder();
+		int paragraphs = 1 + random.nextInt(4);
+		for (int i = 0; i < paragraphs; i++){
+			String format = FORMATS[random.nextInt(FORMATS.length)];
+			body.append(words(5 + random.nextInt(20)));
+			body.append(" <").append(format).append('>').append(words(3)).append("</").append(format).append("><br />\n");
+		}
+		switch (random.nextInt(6)){
+		case 0:
+			body.append("<div class=\"quote\"><table><tr><td>").append(words(10)).append("</td></tr></table></div>");
+			break;
+		case 1:
+			body.append("<script>document.write(\"<table><tr><td>\");</script>").append(words(2));
+			break;
+		case 2:
+			if (longTags){
+				body.append("<img src=\"data:image/png;base64,").append(longValue()).append("\">");
+			}
+			break;
+		default:
+			break;
+		}
+		return body.toString();
+	}
+	
+	private String words(int count){
+		StringBuilder words = new StringBuilder();
+		for (int i = 0; i < count; i++){
+			if (i > 0){
+				words.append(' ');
+			}
+			words.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return words.toString();
+	}
+	
+	/**
+	 * @return Attribute value long enough to overflow a 4096 characters tag buffer.
+	 */
+	private String longValue(){
+		StringBuilder value = new StringBuilder();
+		while (value.length() < 5000){
+			value.append((char) ('A' + random.nextInt(26)));
+		}
+		return value.toString();
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2010, 2011 Ali Piccioni & Francois Poizat
+ *
+ * This program is distributed under the terms of the GNU General Public License
+ *
+ *  This file is part of Team Liquid Android App.
+ *
+ *  Team Liquid Android App is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Team Liquid Android App is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Team Liquid Android App.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.opensourcetlapp.tl;
+
+import org.htmlcleaner.CleanerProperties;
+import org.htmlcleaner.HtmlCleaner;
+import org.htmlcleaner.PrettyXmlSerializer;
+import org.htmlcleaner.Serializer;
+import org.htmlcleaner.SimpleXmlSerializer;
+import org.htmlcleaner.TagNode;
+
+/**
+ * Measures serialization of a generated thread page with many posts: inner HTML of every
+ * td.forumPost, the way ShowThread shows the posts, and the whole page through the simple and
+ * the pretty XML serializer. Best time of the rounds is reported, with a hash of the output so the
+ * runs can be checked for equal results. Only the public API is used, so the same benchmark runs
+ * on the old cleaner with -Dbaseline.src.
+ * Usage: SerializationBench [posts=100] [seed=1]
+ */
+public class SerializationBench {
+	private static final int WARMUP_ROUNDS = 200;
+	private static final int ROUNDS = 100;
+	
+	public static void main(String [] args) throws Exception {
+		int posts = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+		HtmlCleaner cleaner = AppCleaner.build();
+		CleanerProperties props = cleaner.getProperties();
+		String html = new ForumPageGenerator(seed).generate(posts);
+		TagNode rootNode = cleaner.clean(html);
+		TagNode[] postNodes = rootNode.getElementsByAttValue("class", "forumPost", true, false);
+		System.out.println(String.format("page: %d chars, %d posts", html.length(), postNodes.length));
+		
+		long best = Long.MAX_VALUE;
+		int hash = 0;
+		long length = 0;
+		for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++){
+			hash = 0;
+			length = 0;
+			long start = System.nanoTime();
+			for (TagNode post : postNodes){
+				String content = cleaner.getInnerHtml(post);
+				hash = 31 * hash + content.hashCode();
+				length += content.length();
+			}
+			if (round >= WARMUP_ROUNDS){
+				best = Math.min(best, System.nanoTime() - start);
+			}
+		}
+		report("inner html", best, length, hash);
+		
+		bench("simple xml", new SimpleXmlSerializer(props), rootNode);
+		bench("pretty xml", new PrettyXmlSerializer(props), rootNode);
+	}
+	
+	private static void bench(String name, Serializer serializer, TagNode rootNode) throws Exception {
+		long best = Long.MAX_VALUE;
+		String output = null;
+		for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++){
+			long start = System.nanoTime();
+			output = serializer.getAsString(rootNode);
+			if (round >= WARMUP_ROUNDS){
+				best = Math.min(best, System.nanoTime() - start);
+			}
+		}
+		report(name, best, output.length(), output.hashCode());
+	}
+	
+	private static void report(String name, long nanos, long length, int hash){
+		System.out.println(String.format("%-10s: %.3f ms, output %d chars, hash %08x", name, nanos / 1e6, length, hash));
+	}
+}
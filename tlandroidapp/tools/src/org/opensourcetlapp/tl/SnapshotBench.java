@@ -0,0 +1,114 @@
+/*
+ * Copyright 2010, 2011 Ali Piccioni & Francois Poizat
+ *
+ * This program is distributed under the terms of the GNU General Public License
+ *
+ *  This file is part of Team Liquid Android App.
+ *
+ *  Team Liquid Android App is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Team Liquid Android App is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Team Liquid Android App.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.opensourcetlapp.tl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.htmlcleaner.HtmlCleaner;
+import org.htmlcleaner.SimpleXmlSerializer;
+import org.htmlcleaner.TagNode;
+import org.htmlcleaner.TagNodeSnapshot;
+
+/**
+ * Compares loading a page from its TagNodeSnapshot with cleaning the page again, which is what
+ * re-opening an already downloaded thread costs without the snapshot. For every page the best time
+ * of cleaning the HTML, of reading the snapshot from memory and of reading it from a memory mapped
+ * file is reported, and the loaded tree is checked to serialize the same as the cleaned one.
+ * Usage: SnapshotBench (page | directory)...
+ */
+public class SnapshotBench {
+	private static final int WARMUP_ROUNDS = 10;
+	private static final int ROUNDS = 30;
+	
+	public static void main(String [] args) throws Exception {
+		if (args.length < 1){
+			System.err.println("Usage: SnapshotBench (page | directory)...");
+			System.exit(2);
+		}
+		HtmlCleaner cleaner = AppCleaner.build();
+		SimpleXmlSerializer serializer = new SimpleXmlSerializer(cleaner.getProperties());
+		File snapshotFile = File.createTempFile("snapshot", ".bin");
+		snapshotFile.deleteOnExit();
+		long totalClean = 0;
+		long totalRead = 0;
+		long totalMapped = 0;
+		for (File file : TagParserStress.listPages(args, 0)){
+			String html = new String(TagParserStress.readFile(file), "UTF-8");
+			TagNode rootNode = cleaner.clean(html);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			TagNodeSnapshot.write(rootNode, out);
+			byte [] snapshot = out.toByteArray();
+			FileOutputStream fileOut = new FileOutputStream(snapshotFile);
+			try {
+				fileOut.write(snapshot);
+			} finally {
+				fileOut.close();
+			}
+			boolean same = serializer.getAsString(rootNode).equals(
+					serializer.getAsString(TagNodeSnapshot.read(ByteBuffer.wrap(snapshot))));
+			
+			long bestClean = Long.MAX_VALUE;
+			long bestRead = Long.MAX_VALUE;
+			long bestMapped = Long.MAX_VALUE;
+			for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++){
+				long start = System.nanoTime();
+				cleaner.clean(html);
+				long cleaned = System.nanoTime();
+				TagNodeSnapshot.read(ByteBuffer.wrap(snapshot));
+				long read = System.nanoTime();
+				readMapped(snapshotFile);
+				long mapped = System.nanoTime();
+				if (round >= WARMUP_ROUNDS){
+					bestClean = Math.min(bestClean, cleaned - start);
+					bestRead = Math.min(bestRead, read - cleaned);
+					bestMapped = Math.min(bestMapped, mapped - read);
+				}
+			}
+			totalClean += bestClean;
+			totalRead += bestRead;
+			totalMapped += bestMapped;
+			System.out.println(String.format("%s: %d chars, snapshot %d bytes, clean %.3f ms, read %.3f ms, mapped %.3f ms, %.1fx, %s",
+					file, html.length(), snapshot.length, bestClean / 1e6, bestRead / 1e6, bestMapped / 1e6,
+					(double) bestClean / bestRead, same ? "same tree" : "DIFFERENT TREE"));
+		}
+		System.out.println(String.format("total: clean %.3f ms, read %.3f ms, mapped %.3f ms, %.1fx",
+				totalClean / 1e6, totalRead / 1e6, totalMapped / 1e6, (double) totalClean / totalRead));
+	}
+	
+	private static TagNode readMapped(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			return TagNodeSnapshot.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			in.close();
+		}
+	}
+}
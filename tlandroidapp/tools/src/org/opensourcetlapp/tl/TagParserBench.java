@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010, 2011 Ali Piccioni & Francois Poizat
+ *
+ * This program is distributed under the terms of the GNU General Public License
+ *
+ *  This file is part of Team Liquid Android App.
+ *
+ *  Team Liquid Android App is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Team Liquid Android App is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Team Liquid Android App.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.opensourcetlapp.tl;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+
+/**
+ * Measures the throughput of TagParser.extractTagToFile on recorded pages. Every page is
+ * extracted from memory several times and the best time is reported, followed by the total
+ * over all pages. The benchmark measures whichever TagParser is on the class path, so the old
+ * and the new extractor are compared by running it twice - "ant bench-tagparser" in the tools
+ * directory measures the current one on the generated pages, and the same target run with
+ * -Ddir.app.src pointing to the sources of another revision (and -Ddir.build to another directory)
+ * measures that one. Output hashes let the two runs be checked for equal results.
+ * Usage: TagParserBench anchor (page | directory)...
+ */
+public class TagParserBench {
+	private static final int WARMUP_ROUNDS = 10;
+	private static final int ROUNDS = 30;
+	
+	public static void main(String [] args) throws Exception {
+		if (args.length < 2){
+			System.err.println("Usage: TagParserBench anchor (page | directory)...");
+			System.exit(2);
+		}
+		String anchor = args[0];
+		long totalBytes = 0;
+		long totalNanos = 0;
+		for (File file : TagParserStress.listPages(args, 1)){
+			byte [] page = TagParserStress.readFile(file);
+			byte [] output;
+			try {
+				output = extract(anchor, page);
+			} catch (Exception e){
+				// the old extractor fails on tags longer than its buffer
+				System.out.println(file + ": failed, " + e);
+				continue;
+			}
+			for (int round = 0; round < WARMUP_ROUNDS; round++){
+				extract(anchor, page);
+			}
+			long best = Long.MAX_VALUE;
+			for (int round = 0; round < ROUNDS; round++){
+				long start = System.nanoTime();
+				extract(anchor, page);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			totalBytes += page.length;
+			totalNanos += best;
+			System.out.println(String.format("%s: %d bytes in %.3f ms, %.1f MB/s, output %d bytes, hash %08x",
+					file, page.length, best / 1e6, megabytesPerSecond(page.length, best),
+					output.length, Arrays.hashCode(output)));
+		}
+		System.out.println(String.format("total: %d bytes in %.3f ms, %.1f MB/s",
+				totalBytes, totalNanos / 1e6, megabytesPerSecond(totalBytes, totalNanos)));
+	}
+	
+	private static double megabytesPerSecond(long bytes, long nanos){
+		return bytes / 1e6 / (nanos / 1e9);
+	}
+	
+	private static byte [] extract(String anchor, byte [] page) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+		TagParser.extractTagToFile(anchor, new ByteArrayInputStream(page), bw);
+		bw.flush();
+		return out.toByteArray();
+	}
+}
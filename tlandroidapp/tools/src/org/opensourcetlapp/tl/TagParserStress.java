@@ -0,0 +1,142 @@
+/*
+ * Copyright 2010, 2011 Ali Piccioni & Francois Poizat
+ *
+ * This program is distributed under the terms of the GNU General Public License
+ *
+ *  This file is part of Team Liquid Android App.
+ *
+ *  Team Liquid Android App is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Team Liquid Android App is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Team Liquid Android App.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.opensourcetlapp.tl;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Stress test of TagParser used from several threads at once. Each page is extracted once on the
+ * main thread, then the worker threads extract all the pages again and again, each starting at
+ * another page, and compare every output with the sequential one byte for byte.
+ * Usage: TagParserStress anchor (page | directory)... where directories stand for the .html files
+ * in them. Run by "ant stress" in the tools directory, on the pages made by ForumPageGenerator.
+ */
+public class TagParserStress {
+	private static final int THREADS = 8;
+	private static final int ROUNDS = 20;
+	
+	public static void main(String [] args) throws Exception {
+		if (args.length < 2){
+			System.err.println("Usage: TagParserStress anchor (page | directory)...");
+			System.exit(2);
+		}
+		final String anchor = args[0];
+		List<File> files = listPages(args, 1);
+		final byte [][] pages = new byte[files.size()][];
+		final byte [][] expected = new byte[pages.length][];
+		for (int i = 0; i < pages.length; i++){
+			pages[i] = readFile(files.get(i));
+			expected[i] = extract(anchor, pages[i]);
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int t = 0; t < THREADS; t++){
+			final int first = t;
+			results.add(executor.submit(new Callable<Integer>() {
+				public Integer call() throws Exception {
+					int mismatches = 0;
+					for (int round = 0; round < ROUNDS; round++){
+						for (int k = 0; k < pages.length; k++){
+							int i = (first + k) % pages.length;
+							if (!Arrays.equals(expected[i], extract(anchor, pages[i]))){
+								mismatches++;
+							}
+						}
+					}
+					return mismatches;
+				}
+			}));
+		}
+		int mismatches = 0;
+		for (Future<Integer> result : results){
+			mismatches += result.get();
+		}
+		executor.shutdown();
+		
+		int extractions = THREADS * ROUNDS * pages.length;
+		System.out.println(extractions + " parallel extractions, " + mismatches + " differ from the sequential output");
+		System.exit(mismatches == 0 ? 0 : 1);
+	}
+	
+	private static byte [] extract(String anchor, byte [] page) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+		TagParser.extractTagToFile(anchor, new ByteArrayInputStream(page), bw);
+		bw.flush();
+		return out.toByteArray();
+	}
+	
+	/**
+	 * @return Files given by the arguments from the specified index on, with directories replaced
+	 * by the .html files in them, in the order of names.
+	 */
+	static List<File> listPages(String [] args, int from){
+		List<File> pages = new ArrayList<File>();
+		for (int i = from; i < args.length; i++){
+			File file = new File(args[i]);
+			File [] children = file.listFiles();
+			if (children == null){
+				pages.add(file);
+				continue;
+			}
+			Arrays.sort(children);
+			for (File child : children){
+				if (child.getName().endsWith(".html")){
+					pages.add(child);
+				}
+			}
+		}
+		return pages;
+	}
+	
+	static byte [] readFile(File file) throws IOException {
+		InputStream is = new FileInputStream(file);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte [] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) > 0){
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+}
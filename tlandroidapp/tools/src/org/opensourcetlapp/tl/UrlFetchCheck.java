@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010, 2011 Ali Piccioni & Francois Poizat
+ *
+ * This program is distributed under the terms of the GNU General Public License
+ *
+ *  This file is part of Team Liquid Android App.
+ *
+ *  Team Liquid Android App is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  Team Liquid Android App is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with Team Liquid Android App.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package org.opensourcetlapp.tl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.htmlcleaner.HtmlCleaner;
+import org.htmlcleaner.TagNode;
+
+/**
+ * Checks that HtmlCleaner.clean(URL) downloads the page only once, whether the charset comes from
+ * the Content-Type header, from the META tag in the content or from neither. Pages are served by
+ * a minimal HTTP server on the loopback interface, which counts the requests, and the cleaned text
+ * is checked to be decoded in the right charset. Exits with status 1 if any page was requested more
+ * than once or decoded wrongly.
+ * Usage: UrlFetchCheck
+ */
+public class UrlFetchCheck {
+	private static final String TEXT = "Łódź źródło";
+	
+	private static final AtomicInteger requests = new AtomicInteger();
+	
+	public static void main(String [] args) throws Exception {
+		final ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		Thread serverThread = new Thread("http stand-in"){
+			public void run(){
+				while (!server.isClosed()){
+					try {
+						Socket socket = server.accept();
+						try {
+							serve(socket);
+						} finally {
+							socket.close();
+						}
+					} catch (IOException e){
+						// server closed, or the client went away
+					}
+				}
+			}
+		};
+		serverThread.setDaemon(true);
+		serverThread.start();
+		
+		String base = "http://127.0.0.1:" + server.getLocalPort();
+		boolean ok = check(base + "/header", TEXT)
+				& check(base + "/meta", TEXT)
+				& check(base + "/none", "plain ascii text");
+		server.close();
+		if (!ok){
+			System.exit(1);
+		}
+	}
+	
+	private static boolean check(String url, String expected) throws IOException {
+		requests.set(0);
+		TagNode rootNode = new HtmlCleaner().clean(new URL(url));
+		String text = rootNode.getText().toString().trim();
+		int count = requests.get();
+		boolean ok = count == 1 && text.equals(expected);
+		System.out.println(String.format("%s: %d request(s), text %s - %s", url, count,
+				text.equals(expected) ? "decoded right" : "decoded as \"" + text + "\"", ok ? "ok" : "FAILED"));
+		return ok;
+	}
+	
+	private static void serve(Socket socket) throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+		String requestLine = in.readLine();
+		if (requestLine == null){
+			return;
+		}
+		String line;
+		while ((line = in.readLine()) != null && line.length() > 0){
+			// skips the request headers
+		}
+		requests.incrementAndGet();
+		
+		String path = requestLine.split(" ")[1];
+		String contentType;
+		byte [] body;
+		if (path.equals("/header")){
+			contentType = "text/html; charset=ISO-8859-2";
+			body = ("<html><body><p>" + TEXT + "</p></body></html>").getBytes("ISO-8859-2");
+		} else if (path.equals("/meta")){
+			contentType = "text/html";
+			body = ("<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=windows-1250\">"
+					+ "</head><body><p>" + TEXT + "</p></body></html>").getBytes("windows-1250");
+		} else {
+			contentType = "text/html";
+			body = "<html><body><p>plain ascii text</p></body></html>".getBytes("US-ASCII");
+		}
+		
+		OutputStream out = socket.getOutputStream();
+		out.write(("HTTP/1.0 200 OK\r\nContent-Type: " + contentType + "\r\nContent-Length: " + body.length
+				+ "\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+		out.write(body);
+		out.flush();
+	}
+}
@@ -0,0 +1,7 @@
+package android.os;
+
+/**
+ * Stand-in for the Android class, so that the app classes used by the tools run on a plain JVM.
+ */
+public final class Debug {
+}
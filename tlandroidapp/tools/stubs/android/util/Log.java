@@ -0,0 +1,10 @@
+package android.util;
+
+/**
+ * Stand-in for the Android class, so that the app classes used by the tools run on a plain JVM.
+ */
+public final class Log {
+	public static int d(String tag, String msg){
+		return 0;
+	}
+}